@@ -46,6 +46,10 @@ public class Host {
         return getEndpoint("http");
     }
 
+    public boolean hasPort(String portName) {
+        return portMap.containsKey(portName);
+    }
+
     public Endpoint getEndpoint(String portName) {
         return new Endpoint(hostname, portMap.get(portName));
     }
@@ -19,7 +19,9 @@ package enmasse.config.service;
 import enmasse.config.service.amqp.AMQPServer;
 import enmasse.config.service.config.ConfigSubscriptionConfig;
 import enmasse.config.service.model.ResourceDatabase;
+import enmasse.config.service.kubernetes.EventBatchMetrics;
 import enmasse.config.service.kubernetes.KubernetesResourceDatabase;
+import enmasse.config.service.metrics.MetricsServer;
 import enmasse.config.service.podsense.PodSenseSubscriptionConfig;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
@@ -44,20 +46,32 @@ public class Main {
             String openshiftUri = String.format("https://%s:%s", getEnvOrThrow(env, "KUBERNETES_SERVICE_HOST"), getEnvOrThrow(env, "KUBERNETES_SERVICE_PORT"));
             String listenAddress = env.getOrDefault("CONFIGURATION_SERVICE_LISTEN_ADDRESS", "0.0.0.0");
             int listenPort = Integer.parseInt(env.getOrDefault("CONFIGURATION_SERVICE_LISTEN_PORT", "5672"));
+            int metricsPort = Integer.parseInt(env.getOrDefault("METRICS_PORT", "8080"));
+            long batchWindow = Long.parseLong(env.getOrDefault("EVENT_BATCH_WINDOW_MS", "100"));
+            int maxBatchEvents = Integer.parseInt(env.getOrDefault("EVENT_BATCH_MAX_EVENTS", "1000"));
 
             String namespace = getNamespace();
 
             Config config = new ConfigBuilder().withMasterUrl(openshiftUri).withOauthToken(getAuthenticationToken()).withNamespace(namespace).build();
             KubernetesClient client = new DefaultKubernetesClient(config);
 
+            Map<String, KubernetesResourceDatabase<?>> kubernetesDatabases = new LinkedHashMap<>();
+            kubernetesDatabases.put("maas", new KubernetesResourceDatabase<>(client, new ConfigSubscriptionConfig()));
+            kubernetesDatabases.put("podsense", new KubernetesResourceDatabase<>(client, new PodSenseSubscriptionConfig()));
+
             Map<String, ResourceDatabase> databaseMap = new LinkedHashMap<>();
-            databaseMap.put("maas", new KubernetesResourceDatabase<>(client, new ConfigSubscriptionConfig()));
-            databaseMap.put("podsense", new KubernetesResourceDatabase<>(client, new PodSenseSubscriptionConfig()));
+            Map<String, EventBatchMetrics> batchMetrics = new LinkedHashMap<>();
+            kubernetesDatabases.forEach((address, database) -> {
+                database.setEventBatching(batchWindow, maxBatchEvents);
+                databaseMap.put(address, database);
+                batchMetrics.put(address, database.getBatchMetrics());
+            });
 
             AMQPServer server = new AMQPServer(listenAddress, listenPort, databaseMap);
 
             Vertx vertx = Vertx.vertx();
             vertx.deployVerticle(server);
+            vertx.deployVerticle(new MetricsServer(batchMetrics, metricsPort));
         } catch (IllegalArgumentException e) {
             System.out.println("Error parsing environment: " + e.getMessage());
             System.exit(1);
@@ -18,6 +18,7 @@ package enmasse.config.service.amqp;
 
 import enmasse.config.service.model.ObserverKey;
 import enmasse.config.service.model.ResourceDatabase;
+import enmasse.config.service.model.Subscriber;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.proton.ProtonConnection;
 import io.vertx.proton.ProtonSender;
@@ -25,9 +26,11 @@ import io.vertx.proton.ProtonServer;
 import io.vertx.proton.ProtonSession;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Source;
+import org.apache.qpid.proton.message.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -46,6 +49,8 @@ public class AMQPServer extends AbstractVerticle {
     private volatile ProtonServer server;
     private static final Symbol LABELS = Symbol.getSymbol("labels");
     private static final Symbol ANNOTATIONS = Symbol.getSymbol("annotations");
+    // Source capability of receivers asking for a snapshot followed by deltas instead of full updates
+    private static final Symbol DELTA = Symbol.getSymbol("delta");
 
     public AMQPServer(String hostname, int port, Map<String, ResourceDatabase> databaseMap)
     {
@@ -80,7 +85,7 @@ public class AMQPServer extends AbstractVerticle {
                 ResourceDatabase database = lookupDatabase(source.getAddress());
                 Map<String, String> labelFilter = createLabelFilter(source.getFilter());
                 Map<String, String> annotationFilter = createAnnotationFilter(source.getFilter());
-                database.subscribe(new ObserverKey(labelFilter, annotationFilter), sender::send);
+                database.subscribe(new ObserverKey(labelFilter, annotationFilter), createSubscriber(sender, isDeltaRequested(source)));
                 promise.complete(database);
             } catch (Exception e) {
                 promise.fail(e);
@@ -96,6 +101,28 @@ public class AMQPServer extends AbstractVerticle {
         });
     }
 
+    private static Subscriber createSubscriber(ProtonSender sender, boolean delta) {
+        return new Subscriber() {
+            @Override
+            public void resourcesUpdated(Message message) {
+                sender.send(message);
+            }
+
+            @Override
+            public boolean isDeltaSubscriber() {
+                return delta;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the receiver asked for deltas. Servers without delta support send full updates, which carry no
+     * type property, so the receiver can tell which mode it got from the first message.
+     */
+    private static boolean isDeltaRequested(Source source) {
+        return source.getCapabilities() != null && Arrays.asList(source.getCapabilities()).contains(DELTA);
+    }
+
     private ResourceDatabase lookupDatabase(String address) {
         if (databaseMap.containsKey(address)) {
             return databaseMap.get(address);
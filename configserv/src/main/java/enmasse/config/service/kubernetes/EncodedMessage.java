@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.kubernetes;
+
+import org.apache.qpid.proton.codec.WritableBuffer;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+
+import java.util.Arrays;
+
+/**
+ * A message encoded once, so that sending it to many subscribers copies the same bytes instead of encoding the
+ * message again for each of them. The sections of the message must not be changed after it is created.
+ */
+public class EncodedMessage extends MessageImpl {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private final byte [] encoded;
+
+    private EncodedMessage(Message message, byte [] encoded) {
+        super(message.getHeader(), message.getDeliveryAnnotations(), message.getMessageAnnotations(), message.getProperties(),
+                message.getApplicationProperties(), message.getBody(), message.getFooter());
+        this.encoded = encoded;
+    }
+
+    public static EncodedMessage encode(Message message) {
+        if (message instanceof EncodedMessage) {
+            return (EncodedMessage) message;
+        }
+        byte [] buffer = new byte[INITIAL_BUFFER_SIZE];
+        int size = ((MessageImpl) message).encode2(buffer, 0, buffer.length);
+        if (size > buffer.length) {
+            buffer = new byte[size];
+            message.encode(buffer, 0, size);
+        }
+        return new EncodedMessage(message, Arrays.copyOf(buffer, size));
+    }
+
+    public int getEncodedSize() {
+        return encoded.length;
+    }
+
+    @Override
+    public int encode(byte[] data, int offset, int length) {
+        int size = Math.min(length, encoded.length);
+        System.arraycopy(encoded, 0, data, offset, size);
+        return size;
+    }
+
+    /**
+     * Copy as much of the message as fits, returning the full size of the message.
+     */
+    @Override
+    public int encode2(byte[] data, int offset, int length) {
+        System.arraycopy(encoded, 0, data, offset, Math.min(length, encoded.length));
+        return encoded.length;
+    }
+
+    @Override
+    public int encode(WritableBuffer buffer) {
+        int size = Math.min(buffer.remaining(), encoded.length);
+        buffer.put(encoded, 0, size);
+        return size;
+    }
+}
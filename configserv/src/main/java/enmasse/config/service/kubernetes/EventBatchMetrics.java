@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.kubernetes;
+
+import enmasse.config.service.metrics.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the batching of watch events in a resource cache.
+ */
+public class EventBatchMetrics {
+    private final Histogram batchSize = new Histogram(1, 10, 100, 1000, 10000);
+    private final Histogram publishLatency = new Histogram(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10);
+
+    void batchPublished(int numEvents, long latencyNanos) {
+        batchSize.record(numEvents);
+        publishLatency.record(latencyNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public Histogram getBatchSize() {
+        return batchSize;
+    }
+
+    public Histogram getPublishLatency() {
+        return publishLatency;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.kubernetes;
+
+import enmasse.config.service.model.ObserverKey;
+import enmasse.config.service.model.Resource;
+import enmasse.config.service.model.ResourceFactory;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the resources of one type, fed by a single list and watch. Observers are views of the cache for an
+ * observer key, so observers with different filters share the watch and the resources.
+ *
+ * The cache keeps inverted indexes of resource labels and annotations, so that the resources matching the filter
+ * of a new observer are found without scanning the cache.
+ *
+ * Watch events are applied to the cache and the observers as they arrive, but the observers publish their resources
+ * only when the batch window has passed since the first unpublished event, or when the batch holds the maximum
+ * number of events. A burst of events is then filtered, compared and encoded once rather than once per event.
+ */
+public class KubernetesResourceCache<T extends Resource> implements AutoCloseable, Watcher {
+    private static final Logger log = LoggerFactory.getLogger(KubernetesResourceCache.class.getName());
+
+    private final List<Watch> watches = new ArrayList<>();
+    private final ObserverOptions observerOptions;
+    private final ResourceFactory<T> resourceFactory;
+    private final List<KubernetesResourceObserver<T>> observers = new ArrayList<>();
+
+    // Resources by kind and name, and the keys of the resources by label and annotation value
+    private final Map<String, CachedResource<T>> resources = new LinkedHashMap<>();
+    private final Map<String, Map<String, Set<String>>> labelIndex = new HashMap<>();
+    private final Map<String, Map<String, Set<String>>> annotationIndex = new HashMap<>();
+
+    private final long batchWindow;
+    private final int maxBatchEvents;
+    private final EventBatchMetrics metrics;
+    private final ScheduledExecutorService batchExecutor;
+    private int batchEvents = 0;
+    private long batchStart;
+    private boolean flushScheduled = false;
+
+    public KubernetesResourceCache(ResourceFactory<T> resourceFactory, ObserverOptions observerOptions) {
+        this(resourceFactory, observerOptions, 0, 1, new EventBatchMetrics());
+    }
+
+    /**
+     * @param batchWindow Time to wait for more events after the first unpublished event, in milliseconds, or 0 to
+     *                    publish every event
+     * @param maxBatchEvents Number of events after which a batch is published without waiting for the window to pass
+     */
+    public KubernetesResourceCache(ResourceFactory<T> resourceFactory, ObserverOptions observerOptions, long batchWindow, int maxBatchEvents, EventBatchMetrics metrics) {
+        this.resourceFactory = resourceFactory;
+        this.observerOptions = observerOptions;
+        this.batchWindow = batchWindow;
+        this.maxBatchEvents = maxBatchEvents;
+        this.metrics = metrics;
+        this.batchExecutor = batchWindow > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void open() {
+        Map<Operation<? extends HasMetadata, ?, ?, ?>, KubernetesResourceList> initialResources = new LinkedHashMap<>();
+        Map<String, String> labelFilter = observerOptions.getObserverFilter();
+        for (Operation<? extends HasMetadata, ?, ?, ?> operation : observerOptions.getOperations()) {
+            KubernetesResourceList list = (KubernetesResourceList) operation.withLabels(labelFilter).list();
+            initialResources.put(operation, list);
+        }
+        initializeResources(initialResources.values());
+        for (Map.Entry<Operation<? extends HasMetadata, ?, ?, ?>, KubernetesResourceList> entry : initialResources.entrySet()) {
+            watches.add(entry.getKey().withLabels(labelFilter).withResourceVersion(entry.getValue().getMetadata().getResourceVersion()).watch(this));
+        }
+    }
+
+    @Override
+    public void close() {
+        closeWatches();
+        if (batchExecutor != null) {
+            batchExecutor.shutdown();
+        }
+    }
+
+    private void closeWatches() {
+        for (Watch watch : watches) {
+            watch.close();
+        }
+        watches.clear();
+    }
+
+    /**
+     * Add an observer, initialized with the cached resources matching its filter.
+     */
+    public synchronized void addObserver(KubernetesResourceObserver<T> observer) {
+        observers.add(observer);
+        observer.resourcesInitialized(query(observer.getLabelFilter(), observer.getAnnotationFilter()));
+    }
+
+    /**
+     * Returns the cached resources matching a label and annotation filter.
+     */
+    public synchronized List<T> query(Map<String, String> labelFilter, Map<String, String> annotationFilter) {
+        // Scan the smallest set of resources having one of the filtered values
+        Collection<String> candidates = resources.keySet();
+        for (Map.Entry<String, String> filterEntry : labelFilter.entrySet()) {
+            candidates = smallest(candidates, lookup(labelIndex, filterEntry));
+        }
+        for (Map.Entry<String, String> filterEntry : annotationFilter.entrySet()) {
+            candidates = smallest(candidates, lookup(annotationIndex, filterEntry));
+        }
+
+        List<T> matching = new ArrayList<>();
+        for (String key : candidates) {
+            CachedResource<T> cached = resources.get(key);
+            if (cached.matches(labelFilter, annotationFilter)) {
+                matching.add(cached.resource);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Returns the label filter of an observer key, less the labels already filtered by the watch.
+     */
+    public Map<String, String> getLabelFilter(ObserverKey observerKey) {
+        Map<String, String> labelFilter = new LinkedHashMap<>(observerKey.getLabelFilter());
+        labelFilter.keySet().removeAll(observerOptions.getObserverFilter().keySet());
+        return labelFilter;
+    }
+
+    private synchronized void initializeResources(Collection<KubernetesResourceList> initialResources) {
+        resources.clear();
+        labelIndex.clear();
+        annotationIndex.clear();
+        for (KubernetesResourceList list : initialResources) {
+            for (Object item : list.getItems()) {
+                if (item instanceof HasMetadata) {
+                    put(createCachedResource((HasMetadata) item));
+                }
+            }
+        }
+        for (KubernetesResourceObserver<T> observer : observers) {
+            observer.resourcesInitialized(query(observer.getLabelFilter(), observer.getAnnotationFilter()));
+        }
+        // The observers published the listed resources, which include the events of any pending batch
+        batchEvents = 0;
+    }
+
+    @Override
+    public synchronized void eventReceived(Action action, Object obj) {
+        if (!(obj instanceof HasMetadata)) {
+            throw new IllegalArgumentException("Invalid resource instance: " + obj.getClass().getName());
+        }
+
+        CachedResource<T> cached = createCachedResource((HasMetadata) obj);
+        if (action.equals(Action.ADDED) || action.equals(Action.MODIFIED)) {
+            remove(cached.key);
+            put(cached);
+            log.debug("Resource " + cached.resource + " " + action.name().toLowerCase());
+            for (KubernetesResourceObserver<T> observer : observers) {
+                observer.resourceUpdated(cached.resource, cached.matches(observer.getLabelFilter(), observer.getAnnotationFilter()));
+            }
+        } else if (action.equals(Action.DELETED)) {
+            remove(cached.key);
+            log.debug("Resource " + cached.resource + " deleted!");
+            for (KubernetesResourceObserver<T> observer : observers) {
+                observer.resourceDeleted(cached.resource);
+            }
+        } else if (action.equals(Action.ERROR)) {
+            log.error("Received an error event for resource " + cached.resource);
+            return;
+        }
+
+        if (batchEvents++ == 0) {
+            batchStart = System.nanoTime();
+        }
+        if (batchExecutor == null || batchEvents >= maxBatchEvents) {
+            publish();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            try {
+                batchExecutor.schedule(this::batchWindowPassed, batchWindow, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flushScheduled = false;
+                publish();
+            }
+        }
+    }
+
+    private synchronized void batchWindowPassed() {
+        flushScheduled = false;
+        publish();
+    }
+
+    /**
+     * Publish the resources of the observers changed by the events of the current batch.
+     */
+    private void publish() {
+        if (batchEvents == 0) {
+            return;
+        }
+        for (KubernetesResourceObserver<T> observer : observers) {
+            observer.publish();
+        }
+        metrics.batchPublished(batchEvents, System.nanoTime() - batchStart);
+        batchEvents = 0;
+    }
+
+    @Override
+    public void onClose(KubernetesClientException cause) {
+        if (cause != null) {
+            log.info("Exception from watcher: ", cause);
+            closeWatches();
+            log.info("Watch for " + observerOptions.getObserverFilter() + " + closed, restarting");
+            open();
+        } else {
+            log.info("Watch for " + observerOptions.getObserverFilter() + " force closed, stopping");
+        }
+    }
+
+    private CachedResource<T> createCachedResource(HasMetadata item) {
+        T resource = resourceFactory.createResource(item);
+        return new CachedResource<>(resource, item.getMetadata().getLabels(), item.getMetadata().getAnnotations());
+    }
+
+    private void put(CachedResource<T> cached) {
+        resources.put(cached.key, cached);
+        index(labelIndex, cached.labels, cached.key);
+        index(annotationIndex, cached.annotations, cached.key);
+    }
+
+    private void remove(String key) {
+        CachedResource<T> cached = resources.remove(key);
+        if (cached != null) {
+            unindex(labelIndex, cached.labels, key);
+            unindex(annotationIndex, cached.annotations, key);
+        }
+    }
+
+    private static void index(Map<String, Map<String, Set<String>>> index, Map<String, String> values, String key) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            index.computeIfAbsent(entry.getKey(), k -> new HashMap<>())
+                    .computeIfAbsent(entry.getValue(), v -> new HashSet<>())
+                    .add(key);
+        }
+    }
+
+    private static void unindex(Map<String, Map<String, Set<String>>> index, Map<String, String> values, String key) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Map<String, Set<String>> byValue = index.get(entry.getKey());
+            Set<String> keys = byValue.get(entry.getValue());
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                byValue.remove(entry.getValue());
+            }
+            if (byValue.isEmpty()) {
+                index.remove(entry.getKey());
+            }
+        }
+    }
+
+    private static Set<String> lookup(Map<String, Map<String, Set<String>>> index, Map.Entry<String, String> filterEntry) {
+        return index.getOrDefault(filterEntry.getKey(), Collections.emptyMap()).getOrDefault(filterEntry.getValue(), Collections.emptySet());
+    }
+
+    private static Collection<String> smallest(Collection<String> a, Collection<String> b) {
+        return a.size() <= b.size() ? a : b;
+    }
+
+    private static class CachedResource<T extends Resource> {
+        private final String key;
+        private final T resource;
+        private final Map<String, String> labels;
+        private final Map<String, String> annotations;
+
+        private CachedResource(T resource, Map<String, String> labels, Map<String, String> annotations) {
+            this.key = resource.getKey();
+            this.resource = resource;
+            this.labels = labels == null ? Collections.emptyMap() : labels;
+            this.annotations = annotations == null ? Collections.emptyMap() : annotations;
+        }
+
+        private boolean matches(Map<String, String> labelFilter, Map<String, String> annotationFilter) {
+            return containsAll(labels, labelFilter) && containsAll(annotations, annotationFilter);
+        }
+
+        private static boolean containsAll(Map<String, String> values, Map<String, String> filter) {
+            for (Map.Entry<String, String> filterEntry : filter.entrySet()) {
+                if (!filterEntry.getValue().equals(values.get(filterEntry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import java.util.Map;
 
 /**
  * ResourceDatabase backed by OpenShift/Kubernetes REST API supporting subscription for a resource of a particular type
+ *
+ * All observers share one cache of the resources, so subscribing with a new filter does not add a list and watch.
  */
 public class KubernetesResourceDatabase<T extends Resource> implements AutoCloseable, ResourceDatabase {
     private static final Logger log = LoggerFactory.getLogger(KubernetesResourceDatabase.class.getName());
@@ -33,29 +35,58 @@ public class KubernetesResourceDatabase<T extends Resource> implements AutoClose
 
     private final Map<ObserverKey, KubernetesResourceObserver<T>> observerMap = new LinkedHashMap<>();
     private final SubscriptionConfig<T> subscriptionConfig;
+    private final EventBatchMetrics batchMetrics = new EventBatchMetrics();
+    private long batchWindow = 0;
+    private int maxBatchEvents = 1;
+    private KubernetesResourceCache<T> cache;
 
     public KubernetesResourceDatabase(KubernetesClient client, SubscriptionConfig<T> subscriptionConfig) {
         this.client = client;
         this.subscriptionConfig = subscriptionConfig;
     }
 
+    /**
+     * Collect watch events for up to batchWindow milliseconds, or up to maxBatchEvents events, before publishing
+     * the changed resources to the subscribers. Must be set before the first subscription.
+     */
+    public void setEventBatching(long batchWindow, int maxBatchEvents) {
+        this.batchWindow = batchWindow;
+        this.maxBatchEvents = maxBatchEvents;
+    }
+
+    public EventBatchMetrics getBatchMetrics() {
+        return batchMetrics;
+    }
+
     @Override
     public synchronized void close() throws Exception {
-        for (KubernetesResourceObserver<T> observer : observerMap.values()) {
-            observer.close();
+        if (cache != null) {
+            cache.close();
         }
     }
 
     public synchronized void subscribe(ObserverKey observerKey, Subscriber subscriber) throws Exception {
+        if (cache == null) {
+            log.info("Creating resource cache");
+            KubernetesResourceCache<T> created = new KubernetesResourceCache<>(subscriptionConfig.getResourceFactory(), subscriptionConfig.getObserverOptions(client), batchWindow, maxBatchEvents, batchMetrics);
+            try {
+                created.open();
+            } catch (Exception e) {
+                // Leave the cache to be created again by the next subscription
+                created.close();
+                throw e;
+            }
+            cache = created;
+        }
         KubernetesResourceObserver<T> observer = observerMap.get(observerKey);
         if (observer == null) {
             log.info("Creating new observer with filter " + observerKey);
             SubscriptionManager<T> subscriptionManager = new SubscriptionManager<>(subscriptionConfig.getMessageEncoder(), subscriptionConfig.getResourceFilter());
-            observer = new KubernetesResourceObserver<>(observerKey, subscriptionConfig.getResourceFactory(), subscriptionConfig.getObserverOptions(client), subscriptionManager);
+            observer = new KubernetesResourceObserver<>(cache.getLabelFilter(observerKey), observerKey.getAnnotationFilter(), subscriptionManager);
             observerMap.put(observerKey, observer);
 
             observer.subscribe(subscriber);
-            observer.open();
+            cache.addObserver(observer);
         } else {
             log.info("Subscribed to existing observer with filter " + observerKey);
             observer.subscribe(subscriber);
@@ -13,146 +13,91 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package enmasse.config.service.kubernetes;
 
-import enmasse.config.service.model.ObserverKey;
 import enmasse.config.service.model.Resource;
-import enmasse.config.service.model.ResourceFactory;
 import enmasse.config.service.model.Subscriber;
-import io.fabric8.kubernetes.api.model.HasMetadata;
-import io.fabric8.kubernetes.api.model.KubernetesResourceList;
-import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.kubernetes.client.Watch;
-import io.fabric8.kubernetes.client.Watcher;
-import io.fabric8.kubernetes.client.dsl.Operation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
 /**
- * A subscription to a set of resources;
+ * A subscription to the resources of a cache matching a label and annotation filter. Changes are collected until
+ * the cache publishes them.
  */
-public class KubernetesResourceObserver<T extends Resource> implements AutoCloseable, Watcher {
+public class KubernetesResourceObserver<T extends Resource> {
     private static final Logger log = LoggerFactory.getLogger(KubernetesResourceObserver.class.getName());
 
-    private final List<Watch> watches = new ArrayList<>();
-
-    private final ObserverOptions observerOptions;
-
-    private final ObserverKey observerKey;
-    private final Set<T> resourceSet = new LinkedHashSet<>();
-    private final ResourceFactory<T> resourceFactory;
+    private final Map<String, String> labelFilter;
+    private final Map<String, String> annotationFilter;
+    // Matching resources, and the resources changed since the last publish, by key. Removed resources map to null
+    private final Map<String, T> resources = new HashMap<>();
+    private final Map<String, T> changes = new LinkedHashMap<>();
     private final SubscriptionManager<T> subscriptionManager;
 
-    public KubernetesResourceObserver(ObserverKey observerKey, ResourceFactory<T> resourceFactory, ObserverOptions observerOptions, SubscriptionManager<T> subscriptionManager) {
-        this.observerKey = observerKey;
-        this.resourceFactory = resourceFactory;
-        this.observerOptions = observerOptions;
+    public KubernetesResourceObserver(Map<String, String> labelFilter, Map<String, String> annotationFilter, SubscriptionManager<T> subscriptionManager) {
+        this.labelFilter = labelFilter;
+        this.annotationFilter = annotationFilter;
         this.subscriptionManager = subscriptionManager;
     }
 
-    @SuppressWarnings("unchecked")
-    public void open() {
-        Map<Operation<? extends HasMetadata, ?, ?, ?>, KubernetesResourceList>  initialResources = new LinkedHashMap<>();
-        Map<String, String> labelFilter = new LinkedHashMap<>(observerKey.getLabelFilter());
-        labelFilter.putAll(observerOptions.getObserverFilter());
-        for (Operation<? extends HasMetadata, ?, ?, ?> operation : observerOptions.getOperations()) {
-            KubernetesResourceList list = (KubernetesResourceList) operation.withLabels(labelFilter).list();
-            initialResources.put(operation, list);
-        }
-        initializeResources(initialResources.values());
-        for (Map.Entry<Operation<? extends HasMetadata, ?, ?, ?>, KubernetesResourceList> entry : initialResources.entrySet()) {
-            watches.add(entry.getKey().withLabels(labelFilter).withResourceVersion(entry.getValue().getMetadata().getResourceVersion()).watch(this));
-        }
-    }
-
-    private boolean annotationFilter(HasMetadata resource) {
-        Map<String, String> annotationFilter = observerKey.getAnnotationFilter();
-        Map<String, String> annotations = resource.getMetadata().getAnnotations();
-        if (annotationFilter.isEmpty()) {
-            return true;
-        }
-
-        if (annotations == null) {
-            return false;
-        }
-
-        for (Map.Entry<String, String> filterEntry : annotationFilter.entrySet()) {
-            String annotationValue = annotations.get(filterEntry.getKey());
-            if (annotationValue == null || !annotationValue.equals(filterEntry.getValue())) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private synchronized void initializeResources(Collection<KubernetesResourceList> initialResources) {
-        for (KubernetesResourceList list : initialResources) {
-            for (Object item : list.getItems()) {
-                if (item instanceof HasMetadata && annotationFilter((HasMetadata) item)) {
-                    resourceSet.add(resourceFactory.createResource((HasMetadata) item));
-                }
-            }
-        }
-        subscriptionManager.resourcesUpdated(resourceSet);
+    public Map<String, String> getLabelFilter() {
+        return labelFilter;
     }
 
-    @Override
-    public void close() {
-        for (Watch watch : watches) {
-            watch.close();
-        }
-        watches.clear();
+    public Map<String, String> getAnnotationFilter() {
+        return annotationFilter;
     }
 
     public void subscribe(Subscriber subscriber) {
         subscriptionManager.subscribe(subscriber);
     }
 
-    @Override
-    public synchronized void eventReceived(Action action, Object obj) {
-        if (!(obj instanceof HasMetadata)) {
-            throw new IllegalArgumentException("Invalid resource instance: " + obj.getClass().getName());
-        }
-
-        if (!annotationFilter((HasMetadata) obj)) {
-            return;
+    /**
+     * Replace the observed resources, as when the cache is listed.
+     */
+    synchronized void resourcesInitialized(Collection<T> resources) {
+        this.resources.clear();
+        for (T resource : resources) {
+            this.resources.put(resource.getKey(), resource);
         }
+        changes.clear();
+        subscriptionManager.resourcesUpdated(resources);
+    }
 
-        T resource = resourceFactory.createResource((HasMetadata) obj);
-        if (action.equals(Action.ADDED)) {
-            deleteFromSet(resource);
-            resourceSet.add(resource);
-            log.debug("Resource " + resource + " added!");
-        } else if (action.equals(Action.DELETED)) {
-            deleteFromSet(resource);
-            resourceSet.remove(resource);
-            log.debug("Resource " + resource + " deleted!");
-        } else if (action.equals(Action.MODIFIED)) {
-            deleteFromSet(resource);
-            resourceSet.add(resource);
+    /**
+     * Handle a resource added or modified in the cache.
+     *
+     * @param matches Whether the resource matches the filter of this observer
+     */
+    synchronized void resourceUpdated(T resource, boolean matches) {
+        if (matches) {
+            resources.put(resource.getKey(), resource);
+            changes.put(resource.getKey(), resource);
             log.debug("Resource " + resource + " updated!");
-        } else if (action.equals(Action.ERROR)) {
-            log.error("Received an error event for resource " + resource);
+        } else {
+            resourceDeleted(resource);
         }
-        subscriptionManager.resourcesUpdated(resourceSet);
     }
 
-    private void deleteFromSet(Resource resource) {
-        resourceSet.removeIf(next -> next.getName().equals(resource.getName()) && next.getKind().equals(resource.getKind()));
+    /**
+     * Handle a resource deleted from the cache.
+     */
+    synchronized void resourceDeleted(T resource) {
+        if (resources.remove(resource.getKey()) != null) {
+            changes.put(resource.getKey(), null);
+            log.debug("Resource " + resource + " deleted!");
+        }
     }
 
-    @Override
-    public void onClose(KubernetesClientException cause) {
-        if (cause != null) {
-            log.info("Exception from watcher: ", cause);
-            close();
-            log.info("Watch for " + observerOptions.getObserverFilter() + " + closed, restarting");
-            open();
-        } else {
-            log.info("Watch for " + observerOptions.getObserverFilter() + " force closed, stopping");
+    /**
+     * Publish the resources to the subscribers if they changed since they were last published.
+     */
+    synchronized void publish() {
+        if (!changes.isEmpty()) {
+            subscriptionManager.resourcesChanged(changes);
+            changes.clear();
         }
     }
 }
@@ -18,6 +18,7 @@ package enmasse.config.service.kubernetes;
 
 import enmasse.config.service.model.Resource;
 import enmasse.config.service.model.Subscriber;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.message.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,16 +26,51 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Manages subscribers for a given set of OpenShift resources.
+ *
+ * Subscribers are either sent the full set of resources on every change, or, if they are delta subscribers, a
+ * snapshot of the set with its version when they subscribe, followed by one message per added, modified or removed
+ * resource. Each delta carries the sequence number following the previous one, so a subscriber that sees a gap
+ * resubscribes to get a new snapshot.
+ *
+ * Messages are encoded once and the encoded bytes are sent to every subscriber. The full update and the snapshot of
+ * the current resources are cached until the resources change, so that subscribers attaching in between share them.
+ *
+ * The resources are kept by key, and changes are applied one resource at a time, so that the cost of a change does
+ * not depend on the number of resources, apart from encoding full updates.
  */
 public class SubscriptionManager<T extends Resource> {
     private static final Logger log = LoggerFactory.getLogger(SubscriptionManager.class.getName());
+    public static final String TYPE = "type";
+    public static final String VERSION = "version";
+    public static final String SEQUENCE = "sequence";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String ADDED = "added";
+    public static final String MODIFIED = "modified";
+    public static final String REMOVED = "removed";
 
     private final List<Subscriber> subscriberList = new ArrayList<>();
-    private final Set<T> resources = new LinkedHashSet<>();
+    private final Map<String, T> resources = new LinkedHashMap<>();
+    private final Set<T> resourceSet = new AbstractSet<T>() {
+        @Override
+        public Iterator<T> iterator() {
+            return resources.values().iterator();
+        }
+
+        @Override
+        public int size() {
+            return resources.size();
+        }
+    };
+    private long sequence = 0;
+    // Incremented on every change of the resources, to invalidate the cached messages
+    private long generation = 0;
+    private Message encodedUpdate;
+    private long encodedUpdateGeneration = -1;
+    private Message encodedSnapshot;
+    private long encodedSnapshotGeneration = -1;
     private final MessageEncoder<T> messageEncoder;
     private final Predicate<T> resourceFilter;
 
@@ -50,8 +86,10 @@ public class SubscriptionManager<T extends Resource> {
      */
     public synchronized void subscribe(Subscriber subscriber) {
         subscriberList.add(subscriber);
-        // Notify only when we have values
-        if (!resources.isEmpty()) {
+        if (subscriber.isDeltaSubscriber()) {
+            encodeSnapshot().ifPresent(subscriber::resourcesUpdated);
+        } else if (!resources.isEmpty()) {
+            // Notify only when we have values
             Optional<Message> message = encodeAndLog();
             message.ifPresent(subscriber::resourcesUpdated);
         }
@@ -60,31 +98,124 @@ public class SubscriptionManager<T extends Resource> {
     /**
      * Notify subscribers that the set of configs has been updated.
      */
-    private void notifySubscribers() {
-        log.info("Notifying subscribers with updated resources: " + resources);
-        Optional<Message> message = encodeAndLog();
-        message.ifPresent(m -> subscriberList.forEach(s -> s.resourcesUpdated(m)));
+    private void notifySubscribers(List<Message> deltas) {
+        log.info("Notifying subscribers with " + resources.size() + " updated resources");
+        log.debug("Updated resources: " + resources.values());
+        if (subscriberList.stream().anyMatch(s -> !s.isDeltaSubscriber())) {
+            Optional<Message> message = encodeAndLog();
+            message.ifPresent(m -> subscriberList.stream().filter(s -> !s.isDeltaSubscriber()).forEach(s -> s.resourcesUpdated(m)));
+        }
+        for (Message delta : deltas) {
+            subscriberList.stream().filter(Subscriber::isDeltaSubscriber).forEach(s -> s.resourcesUpdated(delta));
+        }
     }
 
     private Optional<Message> encodeAndLog() {
-        Set<T> set = Collections.unmodifiableSet(resources);
+        if (encodedUpdateGeneration != generation) {
+            encodedUpdate = encode(resourceSet, null, null, 0).orElse(null);
+            encodedUpdateGeneration = generation;
+        }
+        return Optional.ofNullable(encodedUpdate);
+    }
+
+    private Optional<Message> encodeSnapshot() {
+        if (encodedSnapshotGeneration != generation) {
+            encodedSnapshot = encode(resourceSet, SNAPSHOT, VERSION, sequence).orElse(null);
+            encodedSnapshotGeneration = generation;
+        }
+        return Optional.ofNullable(encodedSnapshot);
+    }
+
+    private Optional<Message> encode(Set<T> set, String type, String sequenceKey, long sequence) {
         try {
-            return Optional.of(messageEncoder.encode(set));
+            Message message = messageEncoder.encode(Collections.unmodifiableSet(set));
+            if (type != null) {
+                setProperties(message, type, sequenceKey, sequence);
+            }
+            return Optional.of(EncodedMessage.encode(message));
         } catch (IOException e) {
             log.warn("Error encoding message", e);
             return Optional.empty();
         }
     }
 
-    public synchronized void resourcesUpdated(Set<T> updated) {
-        Set<T> filtered = updated.stream()
-                .filter(resourceFilter)
-                .collect(Collectors.toSet());
+    /**
+     * Encode changed resources as deltas, or as a new snapshot if there are more changes than resources.
+     */
+    private List<Message> encodeDeltas(List<String> types, List<T> changed) {
+        if (changed.size() > resources.size()) {
+            sequence++;
+            return encodeSnapshot().map(Collections::singletonList).orElse(Collections.emptyList());
+        }
+        List<Message> deltas = new ArrayList<>(changed.size());
+        for (int i = 0; i < changed.size(); i++) {
+            sequence++;
+            // A delta that fails to encode leaves a gap, which makes delta subscribers resubscribe
+            encode(Collections.singleton(changed.get(i)), types.get(i), SEQUENCE, sequence).ifPresent(deltas::add);
+        }
+        return deltas;
+    }
+
+    private static void setProperties(Message message, String type, String sequenceKey, long sequence) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(TYPE, type);
+        properties.put(sequenceKey, sequence);
+        message.setApplicationProperties(new ApplicationProperties(properties));
+    }
+
+    /**
+     * Replace all resources.
+     */
+    public synchronized void resourcesUpdated(Collection<T> updated) {
+        Map<String, T> changes = new LinkedHashMap<>();
+        for (String key : resources.keySet()) {
+            changes.put(key, null);
+        }
+        for (T resource : updated) {
+            changes.put(resource.getKey(), resource);
+        }
+        resourcesChanged(changes);
+    }
+
+    /**
+     * Apply changed resources, by key, with null for removed resources. Subscribers are notified if any of the
+     * resources passing the filter changed.
+     */
+    public synchronized void resourcesChanged(Map<String, T> changes) {
+        List<String> types = new ArrayList<>();
+        List<T> changed = new ArrayList<>();
+        for (Map.Entry<String, T> change : changes.entrySet()) {
+            T resource = change.getValue();
+            if (resource != null && !resourceFilter.test(resource)) {
+                resource = null;
+            }
+            if (resource == null) {
+                T old = resources.remove(change.getKey());
+                if (old != null) {
+                    types.add(REMOVED);
+                    changed.add(old);
+                }
+            } else {
+                T old = resources.put(change.getKey(), resource);
+                if (old == null) {
+                    types.add(ADDED);
+                    changed.add(resource);
+                } else if (!old.equals(resource)) {
+                    types.add(MODIFIED);
+                    changed.add(resource);
+                }
+            }
+        }
 
-        if (!filtered.equals(resources)) {
-            resources.clear();
-            resources.addAll(filtered);
-            notifySubscribers();
+        if (!changed.isEmpty()) {
+            generation++;
+            List<Message> deltas = Collections.emptyList();
+            if (subscriberList.stream().anyMatch(Subscriber::isDeltaSubscriber)) {
+                deltas = encodeDeltas(types, changed);
+            } else {
+                sequence++;
+            }
+            notifySubscribers(deltas);
         }
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets. Recording is lock-free, so that it can be done on the hot path.
+ */
+public class Histogram {
+    private final double[] buckets;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * @param buckets Upper bounds of the buckets, in increasing order
+     */
+    public Histogram(double ... buckets) {
+        this.buckets = buckets.clone();
+        this.counts = new LongAdder[buckets.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(double value) {
+        int bucket = 0;
+        while (bucket < buckets.length && value > buckets[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Returns the upper bounds of the buckets, excluding the last unbounded bucket.
+     */
+    public double[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * Returns the number of recorded values per bucket, with the last element being the unbounded bucket.
+     * The counts are not cumulative.
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+}
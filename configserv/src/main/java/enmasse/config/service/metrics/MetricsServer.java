@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.metrics;
+
+import enmasse.config.service.kubernetes.EventBatchMetrics;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.http.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Serves the configuration service metrics in the Prometheus text format on /metrics.
+ */
+public class MetricsServer extends AbstractVerticle {
+    private static final Logger log = LoggerFactory.getLogger(MetricsServer.class.getName());
+
+    private final Map<String, EventBatchMetrics> batchMetrics;
+    private final int port;
+    private volatile HttpServer server;
+
+    public MetricsServer(Map<String, EventBatchMetrics> batchMetrics, int port) {
+        this.batchMetrics = batchMetrics;
+        this.port = port;
+    }
+
+    @Override
+    public void start() {
+        server = vertx.createHttpServer();
+        server.requestHandler(request -> {
+            if ("/metrics".equals(request.path())) {
+                request.response()
+                        .putHeader("Content-Type", "text/plain; version=0.0.4")
+                        .end(format(batchMetrics));
+            } else {
+                request.response().setStatusCode(404).end();
+            }
+        });
+        server.listen(port, result -> {
+            if (result.succeeded()) {
+                log.info("Metrics server listening on port " + result.result().actualPort());
+            } else {
+                log.error("Error starting metrics server", result.cause());
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    public int port() {
+        if (server == null) {
+            return 0;
+        }
+        return server.actualPort();
+    }
+
+    static String format(Map<String, EventBatchMetrics> batchMetrics) {
+        StringBuilder builder = new StringBuilder();
+
+        header(builder, "configserv_event_batch_size", "Number of watch events published together", "histogram");
+        batchMetrics.forEach((database, metrics) ->
+                histogram(builder, "configserv_event_batch_size", label("database", database), metrics.getBatchSize()));
+
+        header(builder, "configserv_publish_latency_seconds", "Time from the first watch event of a batch until it is published", "histogram");
+        batchMetrics.forEach((database, metrics) ->
+                histogram(builder, "configserv_publish_latency_seconds", label("database", database), metrics.getPublishLatency()));
+
+        return builder.toString();
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder builder, String name, String labels, Histogram histogram) {
+        double[] buckets = histogram.getBuckets();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += counts[i];
+            sample(builder, name + "_bucket", labels + "," + label("le", Double.toString(buckets[i])), cumulative);
+        }
+        cumulative += counts[buckets.length];
+        sample(builder, name + "_bucket", labels + "," + label("le", "+Inf"), cumulative);
+        sample(builder, name + "_sum", labels, histogram.getSum());
+        sample(builder, name + "_count", labels, cumulative);
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, Object value) {
+        builder.append(name).append('{').append(labels).append('}').append(' ').append(value).append('\n');
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
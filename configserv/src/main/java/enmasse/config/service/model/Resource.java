@@ -11,4 +11,11 @@ public abstract class Resource {
     abstract public String getName();
     abstract public String getKind();
     abstract public String toString();
+
+    /**
+     * Returns the key identifying the resource among resources of all kinds.
+     */
+    public String getKey() {
+        return getKind() + "/" + getName();
+    }
 }
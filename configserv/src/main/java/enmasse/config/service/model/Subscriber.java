@@ -7,4 +7,11 @@ import org.apache.qpid.proton.message.Message;
  */
 public interface Subscriber {
     void resourcesUpdated(Message message);
+
+    /**
+     * Returns true if the subscriber is sent a versioned snapshot followed by deltas, rather than every full update.
+     */
+    default boolean isDeltaSubscriber() {
+        return false;
+    }
 }
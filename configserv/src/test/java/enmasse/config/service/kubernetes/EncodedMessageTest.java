@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.config.service.kubernetes;
+
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EncodedMessageTest {
+    @Test
+    public void testEncodedBytesAreCopied() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            body.append("address").append(i);
+        }
+        Message message = Message.Factory.create();
+        message.setBody(new AmqpValue(body.toString()));
+        message.setContentType("application/json");
+        EncodedMessage encoded = EncodedMessage.encode(message);
+
+        // Senders encode into a small buffer first, and into a buffer of the returned size if it did not fit
+        byte [] small = new byte[16];
+        int size = encoded.encode2(small, 0, small.length);
+        assertThat(size, is(encoded.getEncodedSize()));
+        byte [] buffer = new byte[size];
+        assertThat(encoded.encode(buffer, 0, size), is(size));
+
+        Message decoded = Message.Factory.create();
+        decoded.decode(buffer, 0, size);
+        assertThat(((AmqpValue) decoded.getBody()).getValue(), is(body.toString()));
+        assertThat(decoded.getContentType(), is("application/json"));
+
+        byte [] reencoded = new byte[size];
+        assertThat(((MessageImpl) message).encode(reencoded, 0, size), is(size));
+        assertThat(reencoded, is(buffer));
+    }
+}
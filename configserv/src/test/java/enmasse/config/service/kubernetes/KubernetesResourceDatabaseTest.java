@@ -21,6 +21,7 @@ import enmasse.config.service.model.ObserverKey;
 import enmasse.config.service.model.Subscriber;
 import io.fabric8.kubernetes.api.model.*;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watch;
 import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.dsl.MixedOperation;
@@ -131,6 +132,80 @@ public class KubernetesResourceDatabaseTest {
         assertValue(sub.lastValue, "v22");
     }
 
+    @Test
+    public void testObserversShareWatch() throws Exception {
+        TestSubscriber sub1 = new TestSubscriber();
+        TestSubscriber sub2 = new TestSubscriber();
+        database.subscribe(new ObserverKey(testLabels, Collections.emptyMap()), sub1);
+        database.subscribe(new ObserverKey(Collections.singletonMap("l1", "v2"), Collections.emptyMap()), sub2);
+
+        Watcher listener = getListener();
+        verify(mapOp, times(1)).list();
+        assertValue(sub1.lastValue, "val");
+        assertNull(sub2.lastValue);
+
+        listener.eventReceived(Watcher.Action.ADDED, new TestResource.TestValue("r2", Collections.singletonMap("l1", "v2"), testAnnotations, "v2"));
+        assertValue(sub1.lastValue, "val");
+        assertValue(sub2.lastValue, "v2");
+
+        listener.eventReceived(Watcher.Action.MODIFIED, new TestResource.TestValue("r1", Collections.singletonMap("l1", "v2"), testAnnotations, "v1"));
+        assertValue(sub1.lastValue);
+        assertValue(sub2.lastValue, "v1", "v2");
+    }
+
+    @Test
+    public void testEventsAreBatched() throws Exception {
+        database.setEventBatching(TimeUnit.MINUTES.toMillis(10), 3);
+        TestSubscriber sub = new TestSubscriber();
+        database.subscribe(new ObserverKey(testLabels, Collections.emptyMap()), sub);
+        Message initial = sub.lastValue;
+        assertValue(initial, "val");
+
+        Watcher listener = getListener();
+        listener.eventReceived(Watcher.Action.ADDED, createResource("r2", "v2"));
+        listener.eventReceived(Watcher.Action.ADDED, createResource("r3", "v3"));
+        assertSame(initial, sub.lastValue);
+
+        listener.eventReceived(Watcher.Action.DELETED, createResource("r1"));
+        assertValue(sub.lastValue, "v2", "v3");
+        assertArrayEquals(new long[] {0, 1, 0, 0, 0, 0}, database.getBatchMetrics().getBatchSize().getCounts());
+    }
+
+    @Test
+    public void testSubscribeAfterFailedList() throws Exception {
+        ConfigMapList list = mapOp.list();
+        when(mapOp.list()).thenThrow(new KubernetesClientException("Internal error")).thenReturn(list);
+        ObserverKey key = new ObserverKey(testLabels, Collections.emptyMap());
+        try {
+            database.subscribe(key, new TestSubscriber());
+            fail("Expected subscribe to fail");
+        } catch (KubernetesClientException e) {
+            // Expected
+        }
+
+        TestSubscriber sub = new TestSubscriber();
+        database.subscribe(key, sub);
+        assertValue(sub.lastValue, "val");
+    }
+
+    @Test
+    public void testEventsAreBatchedAfterWatchRestart() throws Exception {
+        database.setEventBatching(10, 1000);
+        TestSubscriber sub = new TestSubscriber();
+        database.subscribe(new ObserverKey(testLabels, Collections.emptyMap()), sub);
+
+        Watcher listener = getListener();
+        listener.onClose(new KubernetesClientException("Watch expired"));
+        verify(mapOp, times(2)).watch(listener);
+
+        listener.eventReceived(Watcher.Action.ADDED, createResource("r2", "v2"));
+        long endTime = System.currentTimeMillis() + 10_000;
+        while (((AmqpSequence) sub.lastValue.getBody()).getValue().size() < 2 && System.currentTimeMillis() < endTime) {
+            Thread.sleep(10);
+        }
+        assertValue(sub.lastValue, "val", "v2");
+    }
+
     private static void assertValue(Message message, String ... values) {
         AmqpSequence seq = (AmqpSequence) message.getBody();
         Set<String> expected = new LinkedHashSet<>(Arrays.asList(values));
@@ -150,7 +225,7 @@ public class KubernetesResourceDatabaseTest {
     }
 
     public static class TestSubscriber implements Subscriber {
-        public Message lastValue = null;
+        public volatile Message lastValue = null;
 
         @Override
         public void resourcesUpdated(Message message) {
@@ -27,11 +27,11 @@ import org.mockito.Captor;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
@@ -72,4 +72,81 @@ public class SubscriptionManagerTest {
         listener.resourcesUpdated(new HashSet<>(Arrays.asList(new TestResource("t2", Collections.singletonMap("key1", "value1"), "v2"), new TestResource("t3", Collections.singletonMap("key1", "value1"), "filtered"))));
         verifyZeroInteractions(mockSub);
     }
+
+    @Test
+    public void testDeltaSubscribing() {
+        MessageEncoder<TestResource> encoder = set -> {
+            Message message = Message.Factory.create();
+            message.setBody(new AmqpValue(set.stream().map(TestResource::getValue).collect(Collectors.toList())));
+            return message;
+        };
+        SubscriptionManager<TestResource> listener = new SubscriptionManager<>(encoder, resource -> true);
+        TestResource t1 = new TestResource("t1", Collections.singletonMap("key1", "value1"), "v1");
+        listener.resourcesUpdated(Collections.singleton(t1));
+
+        List<Message> messages = new ArrayList<>();
+        listener.subscribe(new Subscriber() {
+            @Override
+            public void resourcesUpdated(Message message) {
+                messages.add(message);
+            }
+
+            @Override
+            public boolean isDeltaSubscriber() {
+                return true;
+            }
+        });
+        assertMessage(messages.get(0), SubscriptionManager.SNAPSHOT, SubscriptionManager.VERSION, 1, "v1");
+
+        TestResource t2 = new TestResource("t2", Collections.singletonMap("key1", "value1"), "v2");
+        listener.resourcesUpdated(new HashSet<>(Arrays.asList(t1, t2)));
+        assertMessage(messages.get(1), SubscriptionManager.ADDED, SubscriptionManager.SEQUENCE, 2, "v2");
+
+        listener.resourcesUpdated(new HashSet<>(Arrays.asList(new TestResource("t1", Collections.singletonMap("key1", "value1"), "v11"), t2)));
+        assertMessage(messages.get(2), SubscriptionManager.MODIFIED, SubscriptionManager.SEQUENCE, 3, "v11");
+
+        listener.resourcesUpdated(Collections.singleton(t2));
+        assertMessage(messages.get(3), SubscriptionManager.REMOVED, SubscriptionManager.SEQUENCE, 4, "v11");
+        assertThat(messages.size(), is(4));
+
+        Subscriber mockSub1 = mock(Subscriber.class);
+        Subscriber mockSub2 = mock(Subscriber.class);
+        listener.subscribe(mockSub1);
+        listener.subscribe(mockSub2);
+        verify(mockSub1).resourcesUpdated(messageCaptor.capture());
+        verify(mockSub2).resourcesUpdated(messageCaptor.capture());
+        assertSame(messageCaptor.getAllValues().get(0), messageCaptor.getAllValues().get(1));
+    }
+
+    @Test
+    public void testResourcesChanged() {
+        List<Set<String>> updates = new ArrayList<>();
+        MessageEncoder<TestResource> encoder = set -> {
+            updates.add(set.stream().map(TestResource::getValue).collect(Collectors.toSet()));
+            return Message.Factory.create();
+        };
+        SubscriptionManager<TestResource> listener = new SubscriptionManager<>(encoder, resource -> !"filtered".equals(resource.getValue()));
+        listener.subscribe(mock(Subscriber.class));
+        TestResource t1 = new TestResource("t1", Collections.singletonMap("key1", "value1"), "v1");
+        TestResource t2 = new TestResource("t2", Collections.singletonMap("key1", "value1"), "v2");
+        listener.resourcesUpdated(Arrays.asList(t1, t2));
+        assertThat(updates.get(0), is(new HashSet<>(Arrays.asList("v1", "v2"))));
+
+        Map<String, TestResource> changes = new LinkedHashMap<>();
+        changes.put(t1.getKey(), new TestResource("t1", Collections.singletonMap("key1", "value1"), "filtered"));
+        changes.put("testresource/t3", null);
+        listener.resourcesChanged(changes);
+        assertThat(updates.get(1), is(new HashSet<>(Arrays.asList("v2"))));
+
+        listener.resourcesChanged(Collections.singletonMap(t2.getKey(), t2));
+        listener.resourcesChanged(Collections.singletonMap(t1.getKey(), null));
+        assertThat(updates.size(), is(2));
+    }
+
+    private static void assertMessage(Message message, String type, String sequenceKey, long sequence, String ... values) {
+        Map<String, Object> properties = message.getApplicationProperties().getValue();
+        assertThat(properties.get(SubscriptionManager.TYPE), is(type));
+        assertThat(properties.get(sequenceKey), is(sequence));
+        assertThat(((AmqpValue) message.getBody()).getValue(), is(Arrays.asList(values)));
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler.benchmark;
+
+import enmasse.queue.scheduler.Broker;
+import enmasse.queue.scheduler.PlacementStrategy;
+import enmasse.queue.scheduler.PlacementStrategyProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of computing the placement of a group of addresses, without any management calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlacementStrategyBenchmark {
+    @Param({"least-queues", "rendezvous-hash", "load-aware"})
+    public String strategyName;
+
+    @Param({"1000", "10000"})
+    public int numAddresses;
+
+    @Param({"4", "16"})
+    public int numBrokers;
+
+    private PlacementStrategy strategy;
+    private Collection<String> addresses;
+    private Map<String, Broker> brokers;
+
+    @Setup
+    public void setup() {
+        strategy = PlacementStrategyProvider.createStrategy(strategyName);
+        addresses = Simulation.createConfig(1, numAddresses).get("group0");
+        brokers = new HashMap<>();
+        for (int i = 0; i < numBrokers; i++) {
+            brokers.put("broker" + i, new SimulatedBroker(null, 0, 0, 0));
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<String>> place() {
+        return strategy.place(addresses, brokers);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler.benchmark;
+
+import enmasse.discovery.Endpoint;
+import enmasse.queue.scheduler.AddressSet;
+import enmasse.queue.scheduler.GroupPartitioner;
+import enmasse.queue.scheduler.PlacementStrategyProvider;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs placement scenarios against simulated brokers and reports placement throughput, time to converge and
+ * management calls per address. The scenarios to run are given as arguments, and all are run if none are given.
+ *
+ * The partitioned scenario runs the initial load in 1 up to the given number of scheduler processes, each placing
+ * the groups it owns as a replica, and reports the combined placement throughput for each number of replicas.
+ * The simulation is configured using system properties:
+ *
+ * <ul>
+ *     <li>groups: number of address groups (default 10)</li>
+ *     <li>addresses: number of addresses per group (default 1000)</li>
+ *     <li>brokers: number of brokers per group (default 4)</li>
+ *     <li>latencyMicros: mean latency of a management operation (default 1000)</li>
+ *     <li>jitterMicros: maximum deviation from the mean latency (default 500)</li>
+ *     <li>failureRate: probability of a management operation failing (default 0)</li>
+ *     <li>strategy: placement strategy of the shared groups (default least-queues)</li>
+ *     <li>timeoutSeconds: maximum time to wait for a scenario to converge (default 60)</li>
+ *     <li>replicas: number of scheduler replicas sharing the groups (default 4 for the partitioned scenario, 1 otherwise)</li>
+ *     <li>replica: index of the replica run by this process (default 0)</li>
+ * </ul>
+ */
+public class ScenarioRunner {
+    private static final List<String> scenarios = Arrays.asList("initial-load", "broker-churn", "mass-delete", "partitioned");
+    private static final Pattern completedPattern = Pattern.compile("completed=(\\d+)ms");
+
+    private final int numGroups = Integer.getInteger("groups", 10);
+    private final int addressesPerGroup = Integer.getInteger("addresses", 1000);
+    private final int brokersPerGroup = Integer.getInteger("brokers", 4);
+    private final long latencyMicros = Long.getLong("latencyMicros", 1000);
+    private final long jitterMicros = Long.getLong("jitterMicros", 500);
+    private final double failureRate = Double.parseDouble(System.getProperty("failureRate", "0"));
+    private final String strategy = System.getProperty("strategy", "least-queues");
+    private final long timeoutSeconds = Long.getLong("timeoutSeconds", 60);
+    private final Integer replicas = Integer.getInteger("replicas");
+    private final int replica = Integer.getInteger("replica", 0);
+
+    public static void main(String[] args) throws Exception {
+        ScenarioRunner runner = new ScenarioRunner();
+        System.out.println(runner);
+        for (String scenario : args.length > 0 ? Arrays.asList(args) : scenarios) {
+            runner.run(scenario);
+        }
+    }
+
+    private void run(String scenario) throws Exception {
+        if ("partitioned".equals(scenario)) {
+            runPartitioned(replicas == null ? 4 : replicas);
+            return;
+        }
+        PlacementStrategyProvider strategyProvider = new PlacementStrategyProvider(PlacementStrategyProvider.createStrategy(strategy), Collections.emptyMap());
+        try (Simulation simulation = new Simulation(strategyProvider, latencyMicros, jitterMicros, failureRate)) {
+            Map<String, Set<String>> config = ownedGroups(Simulation.createConfig(numGroups, addressesPerGroup));
+            long numAddresses = config.values().stream().mapToLong(Set::size).sum();
+            for (String groupId : config.keySet()) {
+                for (int i = 0; i < brokersPerGroup; i++) {
+                    simulation.addBroker(groupId).get();
+                }
+            }
+
+            switch (scenario) {
+                case "initial-load":
+                    measure(scenario, simulation, numAddresses, () -> simulation.updateConfig(config));
+                    break;
+                case "broker-churn":
+                    loadConfig(simulation, config);
+                    measure(scenario, simulation, numAddresses, () -> replaceBrokers(simulation, config.keySet()));
+                    break;
+                case "mass-delete":
+                    loadConfig(simulation, config);
+                    Map<String, Set<String>> emptyConfig = new HashMap<>();
+                    for (String groupId : config.keySet()) {
+                        emptyConfig.put(groupId, AddressSet.empty());
+                    }
+                    measure(scenario, simulation, numAddresses, () -> simulation.updateConfig(emptyConfig));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown scenario '" + scenario + "', must be one of " + scenarios);
+            }
+        }
+    }
+
+    /**
+     * Returns the groups owned by the replica of this process.
+     */
+    private Map<String, Set<String>> ownedGroups(Map<String, Set<String>> config) {
+        if (replicas == null || replicas <= 1) {
+            return config;
+        }
+        GroupPartitioner partitioner = new GroupPartitioner("replica" + replica, null);
+        Map<String, Endpoint> replicaMap = new HashMap<>();
+        for (int i = 0; i < replicas; i++) {
+            replicaMap.put("replica" + i, null);
+        }
+        partitioner.setReplicas(replicaMap);
+        Map<String, Set<String>> owned = new HashMap<>();
+        config.forEach((groupId, addresses) -> {
+            if (partitioner.owns(groupId)) {
+                owned.put(groupId, addresses);
+            }
+        });
+        return owned;
+    }
+
+    /**
+     * Run the initial load in separate processes for 1 up to maxReplicas replicas. The combined throughput is
+     * the number of addresses over the time taken by the slowest replica.
+     */
+    private void runPartitioned(int maxReplicas) throws Exception {
+        long numAddresses = (long) numGroups * addressesPerGroup;
+        for (int n = 1; n <= maxReplicas; n++) {
+            List<Process> processes = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                List<String> command = new ArrayList<>();
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                command.add("-Dreplicas=" + n);
+                command.add("-Dreplica=" + i);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ScenarioRunner.class.getName());
+                command.add("initial-load");
+                processes.add(new ProcessBuilder(command).redirectErrorStream(true).start());
+            }
+
+            long slowest = 0;
+            for (Process process : processes) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Matcher matcher = completedPattern.matcher(line);
+                        if (line.startsWith("initial-load") && matcher.find()) {
+                            slowest = Math.max(slowest, Long.parseLong(matcher.group(1)));
+                        }
+                    }
+                }
+                process.waitFor();
+            }
+            System.out.println(String.format("%-13s replicas=%d completed=%dms throughput=%.0f addresses/s",
+                    "partitioned", n, slowest, numAddresses / (Math.max(1, slowest) / 1e3)));
+        }
+    }
+
+    private void loadConfig(Simulation simulation, Map<String, Set<String>> config) throws Exception {
+        simulation.updateConfig(config).get();
+        if (!simulation.awaitConvergence(timeoutSeconds, TimeUnit.SECONDS)) {
+            System.out.println("Initial config did not converge, " + simulation.countUnconverged() + " addresses unplaced");
+        }
+    }
+
+    /**
+     * Replace the first broker of each group with a new one, as when a broker is restarted.
+     */
+    private static CompletableFuture<Void> replaceBrokers(Simulation simulation, Set<String> groupIds) {
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (String groupId : groupIds) {
+            String brokerId = simulation.getBrokerIds(groupId).iterator().next();
+            results.add(simulation.removeBroker(groupId, brokerId));
+            results.add(simulation.addBroker(groupId));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+    }
+
+    private void measure(String scenario, Simulation simulation, long numAddresses, ScenarioStep step) throws Exception {
+        long callsBefore = simulation.getManagementCalls();
+        long failedBefore = simulation.getFailedCalls();
+        long start = System.nanoTime();
+
+        step.run().get(timeoutSeconds, TimeUnit.SECONDS);
+        long completed = System.nanoTime();
+        boolean converged = simulation.awaitConvergence(timeoutSeconds, TimeUnit.SECONDS);
+        long end = System.nanoTime();
+
+        long calls = simulation.getManagementCalls() - callsBefore;
+        System.out.println(String.format("%-13s completed=%dms converged=%s throughput=%.0f addresses/s calls/address=%.2f failed=%d unconverged=%d",
+                scenario,
+                TimeUnit.NANOSECONDS.toMillis(completed - start),
+                converged ? TimeUnit.NANOSECONDS.toMillis(end - start) + "ms" : "no",
+                numAddresses / ((completed - start) / 1e9),
+                (double) calls / numAddresses,
+                simulation.getFailedCalls() - failedBefore,
+                simulation.countUnconverged()));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("groups=%d addresses=%d brokers=%d latency=%dus jitter=%dus failureRate=%.3f strategy=%s",
+                numGroups, addressesPerGroup, brokersPerGroup, latencyMicros, jitterMicros, failureRate, strategy);
+    }
+
+    private interface ScenarioStep {
+        CompletableFuture<Void> run() throws Exception;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler.benchmark;
+
+import enmasse.queue.scheduler.AddressSet;
+import enmasse.queue.scheduler.PlacementStrategyProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes the scheduler to place and delete all addresses on brokers with instant management
+ * operations, which is the scheduling overhead on top of the broker latency measured by {@link ScenarioRunner}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchedulerStateBenchmark {
+    @Param({"1", "10"})
+    public int numGroups;
+
+    @Param({"1000", "10000"})
+    public int numAddresses;
+
+    @Param({"4"})
+    public int numBrokers;
+
+    private Simulation simulation;
+    private Map<String, Set<String>> config;
+    private Map<String, Set<String>> emptyConfig;
+
+    @Setup(Level.Invocation)
+    public void setup() throws Exception {
+        simulation = new Simulation(PlacementStrategyProvider.createDefault(), 0, 0, 0);
+        config = Simulation.createConfig(numGroups, numAddresses / numGroups);
+        emptyConfig = new HashMap<>();
+        for (String groupId : config.keySet()) {
+            emptyConfig.put(groupId, AddressSet.empty());
+            for (int i = 0; i < numBrokers; i++) {
+                simulation.addBroker(groupId).get();
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void teardown() {
+        simulation.close();
+    }
+
+    @Benchmark
+    public void initialLoad() throws Exception {
+        simulation.updateConfig(config).get();
+    }
+
+    @Benchmark
+    public void loadAndDelete() throws Exception {
+        simulation.updateConfig(config).get();
+        simulation.updateConfig(emptyConfig).get();
+    }
+}
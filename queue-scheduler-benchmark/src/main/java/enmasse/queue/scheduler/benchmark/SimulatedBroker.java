@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler.benchmark;
+
+import enmasse.queue.scheduler.Broker;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A broker that keeps its queues in memory, and completes management operations after a simulated latency. A
+ * fraction of the operations fail, as when the broker rejects a request or times out.
+ */
+public class SimulatedBroker implements Broker {
+    private final ScheduledExecutorService timer;
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final double failureRate;
+    private final Set<String> queues = ConcurrentHashMap.newKeySet();
+    private final AtomicLong managementCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+
+    /**
+     * @param timer Executor completing the operations. Operations complete in the calling thread if the latency is 0.
+     * @param latencyMicros Mean latency of a management operation
+     * @param jitterMicros Maximum deviation from the mean latency
+     * @param failureRate Probability of an operation failing, between 0 and 1
+     */
+    public SimulatedBroker(ScheduledExecutorService timer, long latencyMicros, long jitterMicros, double failureRate) {
+        this.timer = timer;
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void deployQueue(String address) {
+        deployQueueAsync(address).join();
+    }
+
+    @Override
+    public void deleteQueue(String address) {
+        deleteQueueAsync(address).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> deployQueueAsync(String address) {
+        return simulate(() -> queues.add(address));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteQueueAsync(String address) {
+        return simulate(() -> queues.remove(address));
+    }
+
+    @Override
+    public Set<String> getQueueNames() {
+        return Collections.unmodifiableSet(queues);
+    }
+
+    @Override
+    public long getNumQueues() {
+        return queues.size();
+    }
+
+    public long getManagementCalls() {
+        return managementCalls.get();
+    }
+
+    public long getFailedCalls() {
+        return failedCalls.get();
+    }
+
+    private CompletableFuture<Void> simulate(Runnable operation) {
+        managementCalls.incrementAndGet();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        long delay = latencyMicros;
+        if (jitterMicros > 0) {
+            delay = Math.max(0, delay + ThreadLocalRandom.current().nextLong(-jitterMicros, jitterMicros + 1));
+        }
+        if (delay == 0) {
+            complete(operation, result);
+        } else {
+            timer.schedule(() -> complete(operation, result), delay, TimeUnit.MICROSECONDS);
+        }
+        return result;
+    }
+
+    private void complete(Runnable operation, CompletableFuture<Void> result) {
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failedCalls.incrementAndGet();
+            result.completeExceptionally(new IllegalStateException("Simulated management failure"));
+        } else {
+            operation.run();
+            result.complete(null);
+        }
+    }
+}
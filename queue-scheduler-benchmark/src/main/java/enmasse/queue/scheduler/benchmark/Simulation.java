@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler.benchmark;
+
+import enmasse.queue.scheduler.AddressSet;
+import enmasse.queue.scheduler.PlacementStrategyProvider;
+import enmasse.queue.scheduler.SchedulerState;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a {@link SchedulerState} against simulated brokers, and keeps track of the brokers of each group in order to
+ * tell when the placement has converged to the current address config.
+ */
+public class Simulation implements AutoCloseable {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4);
+    private final SchedulerState schedulerState;
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final double failureRate;
+    private final Map<String, Map<String, SimulatedBroker>> groupBrokers = new ConcurrentHashMap<>();
+    private final List<SimulatedBroker> allBrokers = new CopyOnWriteArrayList<>();
+    private volatile Map<String, Set<String>> config = Collections.emptyMap();
+    private int brokerCounter = 0;
+
+    public Simulation(PlacementStrategyProvider strategyProvider, long latencyMicros, long jitterMicros, double failureRate) {
+        this.schedulerState = new SchedulerState(executor, strategyProvider);
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Create an address config with the given number of groups and addresses per group.
+     */
+    public static Map<String, Set<String>> createConfig(int numGroups, int addressesPerGroup) {
+        Map<String, Set<String>> config = new HashMap<>();
+        for (int g = 0; g < numGroups; g++) {
+            List<String> addresses = new ArrayList<>(addressesPerGroup);
+            for (int a = 0; a < addressesPerGroup; a++) {
+                addresses.add("group" + g + "/queue" + a);
+            }
+            config.put("group" + g, AddressSet.of(addresses));
+        }
+        return config;
+    }
+
+    public synchronized CompletableFuture<String> addBroker(String groupId) {
+        String brokerId = "broker" + brokerCounter++;
+        SimulatedBroker broker = new SimulatedBroker(timer, latencyMicros, jitterMicros, failureRate);
+        groupBrokers.computeIfAbsent(groupId, id -> new ConcurrentHashMap<>()).put(brokerId, broker);
+        allBrokers.add(broker);
+        return schedulerState.brokerAdded(groupId, brokerId, broker).thenApply(v -> brokerId);
+    }
+
+    public CompletableFuture<Void> removeBroker(String groupId, String brokerId) {
+        groupBrokers.get(groupId).remove(brokerId);
+        return schedulerState.brokerRemoved(groupId, brokerId);
+    }
+
+    public Set<String> getBrokerIds(String groupId) {
+        return new TreeSet<>(groupBrokers.getOrDefault(groupId, Collections.emptyMap()).keySet());
+    }
+
+    public CompletableFuture<Void> updateConfig(Map<String, Set<String>> config) {
+        this.config = config;
+        return schedulerState.addressesChanged(config);
+    }
+
+    /**
+     * Returns the number of management calls made to all brokers, including removed ones.
+     */
+    public long getManagementCalls() {
+        return allBrokers.stream().mapToLong(SimulatedBroker::getManagementCalls).sum();
+    }
+
+    public long getFailedCalls() {
+        return allBrokers.stream().mapToLong(SimulatedBroker::getFailedCalls).sum();
+    }
+
+    /**
+     * Returns the number of addresses without a queue on any of the brokers of their group, plus the number of queues
+     * that no longer have an address. The placement has converged when this is 0.
+     */
+    public int countUnconverged() {
+        int unconverged = 0;
+        Set<String> groupIds = new HashSet<>(config.keySet());
+        groupIds.addAll(groupBrokers.keySet());
+        for (String groupId : groupIds) {
+            Set<String> addresses = config.getOrDefault(groupId, Collections.emptySet());
+            Set<String> deployed = new HashSet<>();
+            for (SimulatedBroker broker : groupBrokers.getOrDefault(groupId, Collections.emptyMap()).values()) {
+                deployed.addAll(broker.getQueueNames());
+            }
+            for (String address : addresses) {
+                if (!deployed.remove(address)) {
+                    unconverged++;
+                }
+            }
+            unconverged += deployed.size();
+        }
+        return unconverged;
+    }
+
+    /**
+     * Wait until the placement has converged, or the timeout expires.
+     *
+     * @return true if the placement converged
+     */
+    public boolean awaitConvergence(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        while (countUnconverged() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        timer.shutdown();
+    }
+}
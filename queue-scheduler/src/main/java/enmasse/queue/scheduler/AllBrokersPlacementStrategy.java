@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Places every address on every broker in the group.
+ */
+public class AllBrokersPlacementStrategy implements PlacementStrategy {
+    @Override
+    public Map<String, List<String>> place(Collection<String> addresses, Map<String, Broker> brokers) {
+        Map<String, List<String>> placement = new LinkedHashMap<>();
+        for (Map.Entry<String, Broker> entry : brokers.entrySet()) {
+            Set<String> deployed = entry.getValue().getQueueNames();
+            for (String address : addresses) {
+                if (!deployed.contains(address)) {
+                    placement.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).add(address);
+                }
+            }
+        }
+        return placement;
+    }
+}
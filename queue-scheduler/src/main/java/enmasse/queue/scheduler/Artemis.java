@@ -20,6 +20,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
 import io.vertx.proton.*;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
@@ -30,36 +31,97 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an Artemis broker that may be managed
+ *
+ * Management requests are tagged with a message id for the broker to echo back as correlation id. If it does, up
+ * to maxInFlight requests are outstanding on the management link at any time, the rest are queued locally. Brokers
+ * that do not echo the id, such as Artemis 2.0, get one request at a time, so that the reply can only belong to the
+ * request in flight. Once such a request times out, a late reply could be taken for the reply of the next request,
+ * so the connection is closed instead.
+ *
+ * The set of queues on the broker is kept locally, updated as queues are deployed and deleted, and from the
+ * binding notifications of the broker, so that queues changed by someone else are noticed without polling. It is
+ * also periodically synchronized with the broker in case a notification was missed. Changes not made by the
+ * scheduler are reported to the inventory listener, batched over a short interval. A snapshot of the broker load
+ * is sampled periodically, so that reading it does not require a round trip.
+ *
+ * The broker is available once its queues have been read from the broker, so that queues lost by a restart of the
+ * broker are deployed again. The queues known from before, as after a restart of the scheduler, are only used if
+ * the queues cannot be read.
  */
 public class Artemis implements Broker {
     private static final Logger log = LoggerFactory.getLogger(Artemis.class.getName());
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int DEFAULT_MAX_IN_FLIGHT = 100;
+    private static final long REQUEST_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final long QUEUE_SYNC_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final long LOAD_SAMPLE_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final long INVENTORY_CHANGE_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final String NOTIFICATION_ADDRESS = "activemq.notifications";
+
     private final Vertx vertx;
+    private final Context context;
     private final ProtonSender sender;
     private final String replyTo;
-    private final BlockingQueue<Message> replies;
+    private final int maxInFlight;
+    private final BrokerMetrics metrics;
     private final String messagingHost = System.getenv("MESSAGING_SERVICE_HOST");
     private final String messagingPort = System.getenv("MESSAGING_SERVICE_PORT_INTERNAL");
 
-    public Artemis(Vertx vertx, ProtonSender sender, String replyTo, BlockingQueue<Message> replies) {
+    // Only accessed from the connection context
+    private final Map<String, Request> inFlight = new LinkedHashMap<>();
+    private final Queue<Request> waiting = new ArrayDeque<>();
+    private final AtomicLong requestCounter = new AtomicLong();
+    // Whether replies carry the correlation id, which is not known until the first reply
+    private Boolean correlated = null;
+    private boolean replyOrderLost = false;
+
+    private final Set<String> queues = ConcurrentHashMap.newKeySet();
+    private final AtomicLong queueModifications = new AtomicLong();
+    // Queues being deployed or deleted by the scheduler, whose notifications are not reported as changes
+    private final Set<String> operationsInProgress = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean inventoryChangePending = new AtomicBoolean();
+    private volatile Runnable inventoryListener;
+    private volatile BrokerLoad load = BrokerLoad.EMPTY;
+
+    public Artemis(Vertx vertx, Context context, ProtonSender sender, String replyTo, int maxInFlight, BrokerMetrics metrics) {
         this.vertx = vertx;
+        this.context = context;
         this.sender = sender;
         this.replyTo = replyTo;
-        this.replies = replies;
+        this.maxInFlight = maxInFlight;
+        this.metrics = metrics;
+    }
+
+    public static CompletableFuture<Broker> create(Vertx vertx, ProtonConnection connection) {
+        return create(vertx, connection, DEFAULT_MAX_IN_FLIGHT, new BrokerMetrics(), Collections.emptySet());
+    }
+
+    public static CompletableFuture<Broker> create(Vertx vertx, ProtonConnection connection, SchedulerMetrics metrics, PlacementStore placementStore) {
+        String brokerId = connection.getRemoteContainer();
+        return create(vertx, connection, DEFAULT_MAX_IN_FLIGHT, metrics.getBrokerMetrics(brokerId), placementStore.getQueues(brokerId));
     }
 
-    public static Future<Broker> create(Vertx vertx, ProtonConnection connection) {
+    public static CompletableFuture<Broker> create(Vertx vertx, ProtonConnection connection, int maxInFlight, BrokerMetrics metrics, Set<String> knownQueues) {
         CompletableFuture<Broker> promise = new CompletableFuture<>();
+        // Connections not accepted by the scheduler are set up on the context of the caller
+        Context context = connection.attachments().get(BrokerFactory.CONTEXT_KEY, Context.class);
+        if (context == null) {
+            context = vertx.getOrCreateContext();
+        }
+        context.runOnContext(v -> setup(vertx, connection, maxInFlight, metrics, knownQueues, promise));
+        return promise;
+    }
+
+    private static void setup(Vertx vertx, ProtonConnection connection, int maxInFlight, BrokerMetrics metrics, Set<String> knownQueues, CompletableFuture<Broker> promise) {
+        Context context = vertx.getOrCreateContext();
         connection.sessionOpenHandler(ProtonSession::open);
-        BlockingQueue<Message> replies = new LinkedBlockingDeque<>();
         ProtonSender sender = connection.createSender("activemq.management");
         sender.openHandler(result -> {
             ProtonReceiver receiver = connection.createReceiver("activemq.management");
@@ -67,35 +129,70 @@ public class Artemis implements Broker {
             source.setDynamic(true);
             receiver.setSource(source);
             receiver.openHandler(h -> {
-                promise.complete(new Artemis(vertx, sender, h.result().getRemoteSource().getAddress(), replies));
-            });
-            receiver.handler(((protonDelivery, message) -> {
-                try {
-                    replies.put(message);
+                Artemis artemis = new Artemis(vertx, context, sender, h.result().getRemoteSource().getAddress(), maxInFlight, metrics);
+                receiver.handler(((protonDelivery, message) -> {
+                    artemis.handleReply(message);
                     ProtonHelper.accepted(protonDelivery, true);
-                } catch (Exception e) {
-                    ProtonHelper.rejected(protonDelivery, true);
-                }
-            }));
+                }));
+                ProtonReceiver notifications = connection.createReceiver(NOTIFICATION_ADDRESS);
+                notifications.handler((protonDelivery, message) -> {
+                    artemis.handleNotification(message);
+                    ProtonHelper.accepted(protonDelivery, true);
+                });
+                notifications.openHandler(n -> {
+                    if (n.failed()) {
+                        log.warn("Error subscribing to broker notifications, relying on periodic sync", n.cause());
+                    }
+                });
+                notifications.open();
+
+                artemis.syncQueueNames().whenComplete((v, cause) -> {
+                    if (cause != null) {
+                        // A guess until the next sync reads the queues of the broker
+                        log.warn("Error getting initial queue names from broker, assuming the " + knownQueues.size() + " queues last known", cause);
+                        artemis.queues.addAll(knownQueues);
+                    }
+                    promise.complete(artemis);
+                });
+                artemis.sampleLoad();
+                vertx.setPeriodic(QUEUE_SYNC_INTERVAL, id -> {
+                    if (connection.isDisconnected()) {
+                        vertx.cancelTimer(id);
+                    } else {
+                        artemis.syncQueueNames();
+                    }
+                });
+                vertx.setPeriodic(LOAD_SAMPLE_INTERVAL, id -> {
+                    if (connection.isDisconnected()) {
+                        vertx.cancelTimer(id);
+                    } else {
+                        artemis.sampleLoad();
+                    }
+                });
+            });
             receiver.open();
         });
         sender.open();
-        return promise;
     }
 
     @Override
     public void deployQueue(String address) {
-        Message message = createMessage("deployQueue");
+        waitFor(deployQueueAsync(address), "Error deploying queue " + address);
+    }
+
+    @Override
+    public CompletableFuture<Void> deployQueueAsync(String address) {
+        queueModifications.incrementAndGet();
+        operationsInProgress.add(address);
         ArrayNode parameters = mapper.createArrayNode();
         parameters.add(address);
         parameters.add(address);
         parameters.addNull();
         parameters.add(false);
+        CompletableFuture<Message> queueReply = doOperation("deployQueue", parameters);
+        queueReply.thenRun(() -> queues.add(address));
 
-        message.setBody(new AmqpValue(encodeJson(parameters)));
-        doRequest(message);
-
-        message = createMessage("createConnectorService");
+        // Sent without waiting for the queue reply, the broker handles requests on the link in order
         parameters = mapper.createArrayNode();
         parameters.add(address);
         parameters.add("org.apache.activemq.artemis.integration.amqp.AMQPConnectorServiceFactory");
@@ -104,88 +201,339 @@ public class Artemis implements Broker {
         connectorParams.put("port", messagingPort);
         connectorParams.put("containerId", address);
         connectorParams.put("groupId", address);
+        CompletableFuture<Message> connectorReply = doOperation("createConnectorService", parameters);
 
-        message.setBody(new AmqpValue(encodeJson(parameters)));
-        doRequest(message);
-        log.info("Deployed queue " + address);
-    }
-
-    private Message doRequest(Message message) {
-        vertx.runOnContext(h -> sender.send(message));
-        try {
-            return replies.poll(60, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+        return CompletableFuture.allOf(queueReply, connectorReply)
+                .whenComplete((v, cause) -> operationsInProgress.remove(address))
+                .thenRun(() -> log.info("Deployed queue " + address));
     }
 
-    private String encodeJson(ArrayNode parameters) {
-        try {
-            return mapper.writeValueAsString(parameters);
-        } catch (JsonProcessingException e) {
-            return "[]";
-        }
+    @Override
+    public void deleteQueue(String address) {
+        waitFor(deleteQueueAsync(address), "Error deleting queue " + address);
     }
 
     @Override
-    public void deleteQueue(String address) {
-        Message message = createMessage("destroyQueue");
+    public CompletableFuture<Void> deleteQueueAsync(String address) {
+        queueModifications.incrementAndGet();
+        operationsInProgress.add(address);
         ArrayNode parameters = mapper.createArrayNode();
         parameters.add(address);
         parameters.add(true);
-        message.setBody(new AmqpValue(encodeJson(parameters)));
+        CompletableFuture<Message> queueReply = doOperation("destroyQueue", parameters);
+        queueReply.thenRun(() -> queues.remove(address));
 
-        doRequest(message);
-
-        message = createMessage("destroyConnectorService");
         parameters = mapper.createArrayNode();
         parameters.add(address);
-        message.setBody(new AmqpValue(encodeJson(parameters)));
-        doRequest(message);
-        log.info("Destroyed queue " + address);
+        CompletableFuture<Message> connectorReply = doOperation("destroyConnectorService", parameters);
+
+        return CompletableFuture.allOf(queueReply, connectorReply)
+                .whenComplete((v, cause) -> operationsInProgress.remove(address))
+                .thenRun(() -> log.info("Destroyed queue " + address));
     }
 
-    private Message createMessage(String operation) {
-        Message message = Message.Factory.create();
-        Map<String, String> properties = new LinkedHashMap<>();
-        properties.put("_AMQ_ResourceName", "broker");
-        properties.put("_AMQ_OperationName", operation);
-        properties.put("JMSReplyTo", replyTo);
-        message.setReplyTo(replyTo);
-        message.setApplicationProperties(new ApplicationProperties(properties));
-        return message;
+    @Override
+    public CompletableFuture<Map<String, Throwable>> deployQueues(Collection<String> addresses) {
+        // Artemis has no batch management operation, so requests for all addresses are pipelined on the link
+        return BulkOperation.execute(addresses, this::deployQueueAsync).thenApply(failures -> {
+            log.info("Deployed " + (addresses.size() - failures.size()) + " of " + addresses.size() + " queues");
+            return failures;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Throwable>> deleteQueues(Collection<String> addresses) {
+        return BulkOperation.execute(addresses, this::deleteQueueAsync).thenApply(failures -> {
+            log.info("Destroyed " + (addresses.size() - failures.size()) + " of " + addresses.size() + " queues");
+            return failures;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> getMessageCountAsync(String address) {
+        return getLongAttribute("queue." + address, "getMessageCount");
     }
 
     @Override
     public long getNumQueues() {
-        return getQueueNames().size();
+        return queues.size();
     }
 
     @Override
     public Set<String> getQueueNames() {
-        Set<String> queues = new LinkedHashSet<>();
-        Message message = createMessage("getQueueNames");
-        message.setBody(new AmqpValue("[]"));
+        return Collections.unmodifiableSet(queues);
+    }
+
+    /**
+     * Replace the local queue inventory with the queues reported by the broker.
+     */
+    CompletableFuture<Void> syncQueueNames() {
+        long modifications = queueModifications.get();
+        return doOperation("getQueueNames", mapper.createArrayNode()).thenApply(this::decodeQueueNames).thenAccept(actual -> {
+            // Operations issued after the request may not be reflected in the reply, retry on the next sync
+            if (queueModifications.get() == modifications && !queues.equals(actual)) {
+                log.info("Queues on broker changed, found " + actual.size() + " queues where " + queues.size() + " were known");
+                queues.retainAll(actual);
+                queues.addAll(actual);
+                inventoryChanged();
+            }
+        });
+    }
 
-        // TODO: Make this method less ugly
-        Message response = doRequest(message);
-        if (response == null) {
-            log.warn("Timed out getting response from broker");
-            return queues;
+    @Override
+    public void setInventoryListener(Runnable listener) {
+        this.inventoryListener = listener;
+    }
+
+    private void inventoryChanged() {
+        Runnable listener = inventoryListener;
+        // Queues changed by hand usually change in bursts, which are reported together
+        if (listener != null && inventoryChangePending.compareAndSet(false, true)) {
+            vertx.setTimer(INVENTORY_CHANGE_DELAY, id -> {
+                inventoryChangePending.set(false);
+                listener.run();
+            });
+        }
+    }
+
+    /**
+     * Update the local queue inventory from a broker notification. Only queues named after their address, as
+     * deployed by the scheduler, are tracked, which leaves out subscription and reply queues.
+     */
+    void handleNotification(Message notification) {
+        ApplicationProperties properties = notification.getApplicationProperties();
+        if (properties == null) {
+            return;
+        }
+        Object type = properties.getValue().get("_AMQ_NotifType");
+        Object routingName = properties.getValue().get("_AMQ_RoutingName");
+        Object address = properties.getValue().get("_AMQ_Address");
+        if (type == null || routingName == null || !routingName.toString().equals(String.valueOf(address))) {
+            return;
         }
+        String queue = routingName.toString();
+        if (!isManagedQueue(queue)) {
+            return;
+        }
+        switch (type.toString()) {
+            case "BINDING_ADDED":
+                queueModifications.incrementAndGet();
+                if (queues.add(queue) && !operationsInProgress.contains(queue)) {
+                    log.debug("Queue " + queue + " was added on broker");
+                    inventoryChanged();
+                }
+                break;
+            case "BINDING_REMOVED":
+                queueModifications.incrementAndGet();
+                if (queues.remove(queue) && !operationsInProgress.contains(queue)) {
+                    log.debug("Queue " + queue + " was removed on broker");
+                    inventoryChanged();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public BrokerLoad getLoad() {
+        return load;
+    }
+
+    /**
+     * Sample the current load of the broker and make it the cached load snapshot.
+     */
+    CompletableFuture<BrokerLoad> sampleLoad() {
+        CompletableFuture<Long> messageCount = getLongAttribute("getTotalMessageCount");
+        CompletableFuture<Long> consumerCount = getLongAttribute("getTotalConsumerCount");
+        CompletableFuture<Long> connectionCount = getLongAttribute("getConnectionCount");
+        // Not available before Artemis 2.1, where memory is left out of the load
+        CompletableFuture<Long> memoryUsage = getLongAttribute("getAddressMemoryUsage").exceptionally(t -> 0L);
+        CompletableFuture<Long> maxMemory = getLongAttribute("getGlobalMaxSize");
+        return CompletableFuture.allOf(messageCount, consumerCount, connectionCount, memoryUsage, maxMemory).thenApply(v -> {
+            load = new BrokerLoad(messageCount.join(), consumerCount.join(), connectionCount.join(), memoryUsage.join(), maxMemory.join());
+            return load;
+        }).whenComplete((sample, cause) -> {
+            if (cause != null) {
+                log.warn("Error sampling broker load", cause);
+            }
+        });
+    }
+
+    private CompletableFuture<Long> getLongAttribute(String operation) {
+        return getLongAttribute("broker", operation);
+    }
+
+    private CompletableFuture<Long> getLongAttribute(String resourceName, String operation) {
+        return doOperation(resourceName, operation, mapper.createArrayNode()).thenApply(response -> {
+            AmqpValue value = (AmqpValue) response.getBody();
+            try {
+                return mapper.readTree((String) value.getValue()).get(0).asLong();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private Set<String> decodeQueueNames(Message response) {
+        Set<String> queueNames = new LinkedHashSet<>();
         AmqpValue value = (AmqpValue) response.getBody();
         try {
             ArrayNode root = (ArrayNode) mapper.readTree((String) value.getValue());
             ArrayNode elements = (ArrayNode) root.get(0);
             for (int i = 0; i < elements.size(); i++) {
                 String queueName = elements.get(i).asText();
-                if (!queueName.equals(replyTo)) {
-                    queues.add(queueName);
+                if (isManagedQueue(queueName)) {
+                    queueNames.add(queueName);
                 }
             }
         } catch (IOException e) {
             log.error("Error decoding queue names", e);
         }
-        return queues;
+        return queueNames;
+    }
+
+    /**
+     * Returns false for the queues the scheduler uses to talk to the broker.
+     */
+    private boolean isManagedQueue(String queueName) {
+        return !queueName.equals(replyTo) && !queueName.equals(NOTIFICATION_ADDRESS);
+    }
+
+    private CompletableFuture<Message> doOperation(String operation, ArrayNode parameters) {
+        return doOperation("broker", operation, parameters);
+    }
+
+    private CompletableFuture<Message> doOperation(String resourceName, String operation, ArrayNode parameters) {
+        Message message = createMessage(resourceName, operation);
+        message.setBody(new AmqpValue(encodeJson(parameters)));
+        return doRequest(message).thenApply(reply -> {
+            if (!isSuccess(reply)) {
+                throw new IllegalStateException("Operation " + operation + " failed: " + reply.getBody());
+            }
+            return reply;
+        });
+    }
+
+    private CompletableFuture<Message> doRequest(Message message) {
+        Request request = new Request(replyTo + "-" + requestCounter.incrementAndGet(), message);
+        message.setMessageId(request.id);
+        message.setCorrelationId(request.id);
+        metrics.requestStarted();
+        context.runOnContext(h -> {
+            waiting.add(request);
+            sendRequests();
+        });
+        return request.promise;
+    }
+
+    private void sendRequests() {
+        if (replyOrderLost) {
+            Request request;
+            while ((request = waiting.poll()) != null) {
+                metrics.requestFailed();
+                request.promise.completeExceptionally(new IllegalStateException("Replies from broker can no longer be matched to requests"));
+            }
+            return;
+        }
+        int window = Boolean.TRUE.equals(correlated) ? maxInFlight : 1;
+        while (inFlight.size() < window && !waiting.isEmpty()) {
+            Request request = waiting.poll();
+            inFlight.put(request.id, request);
+            request.sentTime = System.nanoTime();
+            request.timerId = vertx.setTimer(REQUEST_TIMEOUT, id -> requestTimedOut(request));
+            sender.send(request.message);
+        }
+    }
+
+    private void requestTimedOut(Request request) {
+        if (inFlight.remove(request.id) != null) {
+            metrics.requestTimedOut();
+            request.promise.completeExceptionally(new TimeoutException("Timed out getting response from broker"));
+            if (!Boolean.TRUE.equals(correlated)) {
+                log.warn("Request to broker timed out, closing connection as replies without correlation id can no longer be matched");
+                replyOrderLost = true;
+                sender.getSession().getConnection().close();
+            }
+            sendRequests();
+        }
+    }
+
+    private void handleReply(Message reply) {
+        Object correlationId = reply.getCorrelationId();
+        Request request;
+        if (correlationId != null) {
+            correlated = true;
+            request = inFlight.remove(correlationId.toString());
+        } else if (!Boolean.TRUE.equals(correlated) && !replyOrderLost && inFlight.size() == 1) {
+            correlated = false;
+            Iterator<Request> it = inFlight.values().iterator();
+            request = it.next();
+            it.remove();
+        } else {
+            // Cannot be matched to a request, which times out instead
+            log.warn("Discarding reply without correlation id");
+            return;
+        }
+        if (request == null) {
+            log.warn("Discarding reply with unknown correlation id " + correlationId);
+            return;
+        }
+        vertx.cancelTimer(request.timerId);
+        metrics.requestCompleted(System.nanoTime() - request.sentTime);
+        request.promise.complete(reply);
+        sendRequests();
+    }
+
+    private static boolean isSuccess(Message reply) {
+        ApplicationProperties properties = reply.getApplicationProperties();
+        if (properties == null) {
+            return true;
+        }
+        Object succeeded = properties.getValue().get("_AMQ_OperationSucceeded");
+        return succeeded == null || Boolean.TRUE.equals(succeeded);
+    }
+
+    private static <T> T waitFor(CompletableFuture<T> future, String errorMessage) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            log.warn(errorMessage, e.getCause());
+            return null;
+        }
+    }
+
+    private String encodeJson(ArrayNode parameters) {
+        try {
+            return mapper.writeValueAsString(parameters);
+        } catch (JsonProcessingException e) {
+            return "[]";
+        }
+    }
+
+    private Message createMessage(String resourceName, String operation) {
+        Message message = Message.Factory.create();
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("_AMQ_ResourceName", resourceName);
+        properties.put("_AMQ_OperationName", operation);
+        properties.put("JMSReplyTo", replyTo);
+        message.setReplyTo(replyTo);
+        message.setApplicationProperties(new ApplicationProperties(properties));
+        return message;
+    }
+
+    private static class Request {
+        private final String id;
+        private final Message message;
+        private final CompletableFuture<Message> promise = new CompletableFuture<>();
+        private long timerId;
+        private long sentTime;
+
+        private Request(String id, Message message) {
+            this.id = id;
+            this.message = message;
+        }
     }
 }
@@ -16,7 +16,10 @@
 
 package enmasse.queue.scheduler;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents a broker that may be assigned multiple addresses
@@ -26,4 +29,66 @@ public interface Broker {
     void deleteQueue(String address);
     Set<String> getQueueNames();
     long getNumQueues();
+
+    /**
+     * Returns the most recent load snapshot of the broker. Brokers that do not sample their load only report
+     * an empty load, leaving the number of queues as the only load indicator.
+     */
+    default BrokerLoad getLoad() {
+        return BrokerLoad.EMPTY;
+    }
+
+    /**
+     * Non-blocking variant of {@link #deployQueue(String)}. Brokers that cannot pipeline requests
+     * perform the operation in the calling thread.
+     */
+    default CompletableFuture<Void> deployQueueAsync(String address) {
+        return CompletableFuture.runAsync(() -> deployQueue(address), Runnable::run);
+    }
+
+    /**
+     * Non-blocking variant of {@link #deleteQueue(String)}.
+     */
+    default CompletableFuture<Void> deleteQueueAsync(String address) {
+        return CompletableFuture.runAsync(() -> deleteQueue(address), Runnable::run);
+    }
+
+    /**
+     * Deploy queues for a set of addresses. The returned map contains the addresses that could not be
+     * deployed along with the cause, and is empty if all succeeded.
+     */
+    default CompletableFuture<Map<String, Throwable>> deployQueues(Collection<String> addresses) {
+        return BulkOperation.execute(addresses, this::deployQueueAsync);
+    }
+
+    /**
+     * Delete queues for a set of addresses. The returned map contains the addresses that could not be
+     * deleted along with the cause, and is empty if all succeeded.
+     */
+    default CompletableFuture<Map<String, Throwable>> deleteQueues(Collection<String> addresses) {
+        return BulkOperation.execute(addresses, this::deleteQueueAsync);
+    }
+
+    /**
+     * Returns the number of messages stored in the queue of an address. Brokers that do not store messages report
+     * every queue as empty.
+     */
+    default CompletableFuture<Long> getMessageCountAsync(String address) {
+        return CompletableFuture.completedFuture(0L);
+    }
+
+    /**
+     * Set a listener that is called when the queues of the broker change other than by the operations of the
+     * scheduler, such as queues created or deleted by someone else. Brokers that do not track their queues never
+     * call it.
+     */
+    default void setInventoryListener(Runnable listener) {
+    }
+
+    /**
+     * Non-blocking variant of {@link #getQueueNames()}.
+     */
+    default CompletableFuture<Set<String>> getQueueNamesAsync() {
+        return CompletableFuture.supplyAsync(this::getQueueNames, Runnable::run);
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+/**
+ * Limits on the queues that may be placed on a broker. A limit of 0 means unlimited. The memory used by a broker is
+ * estimated as a fixed amount per queue on top of the memory used by messages.
+ */
+public class BrokerCapacity {
+    public static final BrokerCapacity UNLIMITED = new BrokerCapacity(0, 0, 0);
+
+    private final long maxQueues;
+    private final long maxMemory;
+    private final long queueMemoryEstimate;
+
+    public BrokerCapacity(long maxQueues, long maxMemory, long queueMemoryEstimate) {
+        this.maxQueues = maxQueues;
+        this.maxMemory = maxMemory;
+        this.queueMemoryEstimate = queueMemoryEstimate;
+    }
+
+    public long getMaxQueues() {
+        return maxQueues;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public long getQueueMemoryEstimate() {
+        return queueMemoryEstimate;
+    }
+
+    public boolean isLimited() {
+        return maxQueues > 0 || maxMemory > 0;
+    }
+
+    public long getEstimatedMemory(Broker broker) {
+        return broker.getNumQueues() * queueMemoryEstimate + broker.getLoad().getMemoryUsage();
+    }
+
+    /**
+     * Returns the number of queues that may still be placed on a broker.
+     */
+    public long getRemaining(Broker broker) {
+        long remaining = Long.MAX_VALUE;
+        if (maxQueues > 0) {
+            remaining = Math.max(0, maxQueues - broker.getNumQueues());
+        }
+        if (maxMemory > 0) {
+            long freeMemory = Math.max(0, maxMemory - getEstimatedMemory(broker));
+            if (queueMemoryEstimate > 0) {
+                remaining = Math.min(remaining, freeMemory / queueMemoryEstimate);
+            } else if (freeMemory == 0) {
+                remaining = 0;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the fraction of the capacity of a broker in use, by the most constraining limit, or 0 if the
+     * broker is not limited.
+     */
+    public double getUtilization(Broker broker) {
+        double utilization = 0;
+        if (maxQueues > 0) {
+            utilization = (double) broker.getNumQueues() / maxQueues;
+        }
+        if (maxMemory > 0) {
+            utilization = Math.max(utilization, (double) getEstimatedMemory(broker) / maxMemory);
+        }
+        return utilization;
+    }
+
+    @Override
+    public String toString() {
+        return "{maxQueues=" + maxQueues +
+                ",maxMemory=" + maxMemory +
+                ",queueMemoryEstimate=" + queueMemoryEstimate + "}";
+    }
+}
@@ -18,11 +18,20 @@ package enmasse.queue.scheduler;
 
 import io.vertx.proton.ProtonConnection;
 
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Factory for creating broker instances.
  */
 public interface BrokerFactory {
-    Future<Broker> createBroker(ProtonConnection connection);
+    /**
+     * Attachment of a broker connection holding the vert.x context the connection is handled on.
+     */
+    String CONTEXT_KEY = "context";
+
+    /**
+     * Create a broker for a connection. The returned future completes once the broker is ready to be managed.
+     * Called on the context of the connection.
+     */
+    CompletableFuture<Broker> createBroker(ProtonConnection connection);
 }
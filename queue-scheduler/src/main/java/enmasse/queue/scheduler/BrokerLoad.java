@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+/**
+ * A snapshot of the load on a broker.
+ */
+public class BrokerLoad {
+    public static final BrokerLoad EMPTY = new BrokerLoad(0, 0, 0, 0, 0);
+
+    private final long messageCount;
+    private final long consumerCount;
+    private final long connectionCount;
+    private final long memoryUsage;
+    private final long maxMemory;
+
+    public BrokerLoad(long messageCount, long consumerCount, long connectionCount, long memoryUsage, long maxMemory) {
+        this.messageCount = messageCount;
+        this.consumerCount = consumerCount;
+        this.connectionCount = connectionCount;
+        this.memoryUsage = memoryUsage;
+        this.maxMemory = maxMemory;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getConsumerCount() {
+        return consumerCount;
+    }
+
+    public long getConnectionCount() {
+        return connectionCount;
+    }
+
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Returns the fraction of the broker memory in use, or 0 if the broker has no memory limit.
+     */
+    public double getMemoryUtilization() {
+        if (maxMemory <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, (double) memoryUsage / maxMemory);
+    }
+
+    @Override
+    public String toString() {
+        return "{messageCount=" + messageCount +
+                ",consumerCount=" + consumerCount +
+                ",connectionCount=" + connectionCount +
+                ",memoryUsage=" + memoryUsage +
+                ",maxMemory=" + maxMemory + "}";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the management requests sent to a single broker.
+ */
+public class BrokerMetrics {
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final LongAdder outstandingRequests = new LongAdder();
+    private final LongAdder requestTimeouts = new LongAdder();
+
+    public void requestStarted() {
+        outstandingRequests.increment();
+    }
+
+    public void requestCompleted(long latencyNanos) {
+        outstandingRequests.decrement();
+        requestLatency.record(latencyNanos);
+    }
+
+    public void requestFailed() {
+        outstandingRequests.decrement();
+    }
+
+    public void requestTimedOut() {
+        outstandingRequests.decrement();
+        requestTimeouts.increment();
+    }
+
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    public long getOutstandingRequests() {
+        return outstandingRequests.sum();
+    }
+
+    public long getRequestTimeouts() {
+        return requestTimeouts.sum();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Applies a per-address operation to many addresses at once and collects the failures.
+ */
+class BulkOperation {
+    static CompletableFuture<Map<String, Throwable>> execute(Collection<String> addresses, Function<String, CompletableFuture<Void>> operation) {
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] results = new CompletableFuture[addresses.size()];
+        int i = 0;
+        for (String address : addresses) {
+            CompletableFuture<Void> result;
+            try {
+                result = operation.apply(address);
+            } catch (Exception e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+            results[i++] = result.handle((v, cause) -> {
+                if (cause != null) {
+                    failures.put(address, unwrap(cause));
+                }
+                return null;
+            });
+        }
+        return CompletableFuture.allOf(results).thenApply(v -> failures);
+    }
+
+    private static Throwable unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            return cause.getCause();
+        }
+        return cause;
+    }
+}
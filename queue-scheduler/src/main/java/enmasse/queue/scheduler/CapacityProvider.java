@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Selects the capacity of the brokers in a group. Groups with an explicitly configured capacity use that one, and
+ * other groups use the default capacity.
+ */
+public class CapacityProvider {
+    private final BrokerCapacity defaultCapacity;
+    private final Map<String, BrokerCapacity> groupCapacities;
+
+    public CapacityProvider(BrokerCapacity defaultCapacity, Map<String, BrokerCapacity> groupCapacities) {
+        this.defaultCapacity = defaultCapacity;
+        this.groupCapacities = groupCapacities;
+    }
+
+    public static CapacityProvider createDefault() {
+        return new CapacityProvider(BrokerCapacity.UNLIMITED, Collections.emptyMap());
+    }
+
+    public BrokerCapacity getCapacity(String groupId) {
+        return groupCapacities.getOrDefault(groupId, defaultCapacity);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of asynchronous tasks running at the same time. Tasks beyond the limit are started in
+ * submission order as running tasks complete.
+ */
+class ConcurrencyLimiter {
+    private final int maxConcurrency;
+    private final Queue<Task> waiting = new ArrayDeque<>();
+    private int running = 0;
+
+    ConcurrencyLimiter(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Submit a task. The task counts against the limit until the returned future completes, which happens when the
+     * future of the task completes or when the returned future is completed by the caller, as on a timeout.
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> supplier) {
+        return submit(Runnable::run, supplier);
+    }
+
+    /**
+     * Submit a task that is started on the given executor, whether it starts right away or after a running task
+     * completes on some other thread.
+     */
+    <T> CompletableFuture<T> submit(Executor executor, Supplier<CompletableFuture<T>> supplier) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Task task = new Task(() -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        supplier.get().whenComplete((value, cause) -> {
+                            if (cause != null) {
+                                result.completeExceptionally(cause);
+                            } else {
+                                result.complete(value);
+                            }
+                        });
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        boolean startNow;
+        synchronized (this) {
+            startNow = running < maxConcurrency;
+            if (startNow) {
+                running++;
+                task.started = true;
+            } else {
+                waiting.add(task);
+            }
+        }
+        result.whenComplete((value, cause) -> taskCompleted(task));
+        if (startNow) {
+            task.start.run();
+        }
+        return result;
+    }
+
+    private void taskCompleted(Task task) {
+        Task next;
+        synchronized (this) {
+            if (!task.started) {
+                // Completed by the caller before it was started
+                waiting.remove(task);
+                return;
+            }
+            next = waiting.poll();
+            if (next == null) {
+                running--;
+            } else {
+                next.started = true;
+            }
+        }
+        if (next != null) {
+            next.start.run();
+        }
+    }
+
+    private static class Task {
+        private final Runnable start;
+        // Guarded by the limiter
+        private boolean started = false;
+
+        private Task(Runnable start) {
+            this.start = start;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package enmasse.queue.scheduler;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import io.vertx.core.AbstractVerticle;
-import io.vertx.core.json.JsonObject;
 import io.vertx.proton.ProtonClient;
 import io.vertx.proton.ProtonConnection;
 import io.vertx.proton.ProtonReceiver;
@@ -9,20 +11,24 @@ import org.apache.qpid.proton.amqp.messaging.AmqpValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * Client connecting to the configuration service.
+ *
+ * The address config is decoded with a streaming parser into one AddressSet per group. Groups whose addresses did
+ * not change since the previous config are passed on as the same AddressSet instance, so that listeners can skip
+ * them without comparing their contents. Addresses of changed groups reuse the strings of the previous config.
  */
 public class ConfigServiceClient extends AbstractVerticle {
     private static final Logger log = LoggerFactory.getLogger(ConfigServiceClient.class.getName());
+    private static final JsonFactory jsonFactory = new JsonFactory();
     private final String configHost;
     private final int configPort;
     private final ConfigListener configListener;
     private volatile ProtonConnection configConnection;
+    private Map<String, AddressSet> currentConfig = Collections.emptyMap();
 
     public ConfigServiceClient(String configHost, int configPort, ConfigListener configListener) {
         this.configHost = configHost;
@@ -52,8 +58,11 @@ public class ConfigServiceClient extends AbstractVerticle {
                 });
                 receiver.handler((protonDelivery, message) -> {
                     String payload = (String)((AmqpValue)message.getBody()).getValue();
-                    Map<String, Set<String>> addressConfig = decodeAddressConfig(new JsonObject(payload));
-                    configListener.addressesChanged(addressConfig);
+                    try {
+                        configListener.addressesChanged(decodeAddressConfig(payload));
+                    } catch (IOException e) {
+                        log.error("Error decoding address config", e);
+                    }
                 });
                 receiver.open();
             } else {
@@ -63,25 +72,70 @@ public class ConfigServiceClient extends AbstractVerticle {
         });
     }
 
-    private Map<String, Set<String>> decodeAddressConfig(JsonObject payload) {
-        Map<String, Set<String>> addressMap = new LinkedHashMap<>();
-        for (String address : payload.fieldNames()) {
-            JsonObject addressObject = payload.getJsonObject(address);
-            if (isQueue(addressObject)) {
-                String groupId = addressObject.getString("group_id");
-                Set<String> addresses = addressMap.get(groupId);
-                if (addresses == null) {
-                    addresses = new HashSet<>();
-                    addressMap.put(groupId, addresses);
+    private Map<String, Set<String>> decodeAddressConfig(String payload) throws IOException {
+        Map<String, List<String>> groupAddresses = new LinkedHashMap<>();
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected address config to be an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String address = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
                 }
-                addresses.add(address);
+                decodeAddress(parser, address, groupAddresses);
             }
         }
+
+        Map<String, Set<String>> addressMap = new LinkedHashMap<>();
+        Map<String, AddressSet> config = new HashMap<>();
+        groupAddresses.forEach((groupId, addresses) -> {
+            AddressSet previous = currentConfig.get(groupId);
+            AddressSet addressSet = AddressSet.of(addresses, previous);
+            if (addressSet.equals(previous)) {
+                addressSet = previous;
+            }
+            config.put(groupId, addressSet);
+            addressMap.put(groupId, addressSet);
+        });
+        currentConfig = config;
         return addressMap;
     }
 
-    private boolean isQueue(JsonObject addressObject) {
-        return addressObject.getBoolean("store_and_forward") && !addressObject.getBoolean("multicast");
+    private static void decodeAddress(JsonParser parser, String address, Map<String, List<String>> groupAddresses) throws IOException {
+        boolean storeAndForward = false;
+        boolean multicast = false;
+        String groupId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "store_and_forward":
+                    storeAndForward = value == JsonToken.VALUE_TRUE;
+                    break;
+                case "multicast":
+                    multicast = value == JsonToken.VALUE_TRUE;
+                    break;
+                case "group_id":
+                    groupId = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        if (isQueue(storeAndForward, multicast)) {
+            if (groupId == null) {
+                log.warn("Queue " + address + " has no group_id, ignoring");
+                return;
+            }
+            groupAddresses.computeIfAbsent(groupId, id -> new ArrayList<>()).add(address);
+        }
+    }
+
+    private static boolean isQueue(boolean storeAndForward, boolean multicast) {
+        return storeAndForward && !multicast;
     }
 
     @Override
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import enmasse.discovery.DiscoveryListener;
+import enmasse.discovery.Endpoint;
+import enmasse.discovery.Host;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Partitions the groups between scheduler replicas. Each group is owned by the replica with the highest hash of
+ * group and replica id, so when a replica leaves only the groups it owned move to other replicas. The replicas are
+ * discovered as hosts, identified by their host name. Until the replicas have been discovered, this replica owns no
+ * groups, as it cannot tell which of them other replicas own.
+ */
+public class GroupPartitioner implements DiscoveryListener {
+    private static final Logger log = LoggerFactory.getLogger(GroupPartitioner.class.getName());
+
+    private final String self;
+    private final String portName;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<Void> discovered = new CompletableFuture<>();
+    private volatile Map<String, Endpoint> replicas;
+
+    public GroupPartitioner(String self, String portName) {
+        this.self = self;
+        this.portName = portName;
+        this.replicas = Collections.singletonMap(self, null);
+    }
+
+    /**
+     * Create a partitioner for a single replica, which owns all groups.
+     */
+    public static GroupPartitioner single() {
+        GroupPartitioner partitioner = new GroupPartitioner("local", null);
+        partitioner.discovered.complete(null);
+        return partitioner;
+    }
+
+    /**
+     * Returns a future completed when the replicas have been set for the first time.
+     */
+    public CompletableFuture<Void> discovered() {
+        return discovered;
+    }
+
+    /**
+     * Add a listener that is called when the replicas, and so the owners of the groups, change.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void hostsChanged(Set<Host> hosts) {
+        Map<String, Endpoint> discovered = new HashMap<>();
+        for (Host host : hosts) {
+            if (host.hasPort(portName)) {
+                discovered.put(host.getHostname(), host.getEndpoint(portName));
+            } else {
+                log.warn("Scheduler replica " + host + " has no port named " + portName + ", ignoring");
+            }
+        }
+        setReplicas(discovered);
+    }
+
+    /**
+     * Set the replicas sharing the groups, by replica id. This replica is always included.
+     */
+    public void setReplicas(Map<String, Endpoint> updated) {
+        Map<String, Endpoint> replicas = new TreeMap<>(updated);
+        replicas.putIfAbsent(self, null);
+        if (discovered.isDone() && replicas.keySet().equals(this.replicas.keySet())) {
+            return;
+        }
+        this.replicas = replicas;
+        discovered.complete(null);
+        log.info("Scheduler replicas changed to " + replicas.keySet());
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    public boolean owns(String groupId) {
+        return discovered.isDone() && self.equals(getOwnerId(groupId));
+    }
+
+    /**
+     * Returns the endpoint of the replica owning a group, or null if it is not known.
+     */
+    public Endpoint getOwner(String groupId) {
+        return replicas.get(getOwnerId(groupId));
+    }
+
+    private String getOwnerId(String groupId) {
+        Map<String, Endpoint> current = replicas;
+        if (current.size() == 1) {
+            return self;
+        }
+        return RendezvousHashPlacementStrategy.selectBroker(groupId, current.keySet());
+    }
+}
@@ -0,0 +1,681 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * The brokers and addresses of a single group. Not thread safe, all access goes through the group executor.
+ */
+class GroupState {
+    private static final Logger log = LoggerFactory.getLogger(GroupState.class.getName());
+    private final String groupId;
+    private final SerialExecutor executor;
+    private final PlacementStrategyProvider strategyProvider;
+    private final PlacementStore placementStore;
+    private final BrokerCapacity capacity;
+    private final Map<String, Broker> brokerMap = new LinkedHashMap<>();
+    // Copy of the broker map that may be read outside the group executor
+    private volatile Map<String, Broker> brokerSnapshot = Collections.emptyMap();
+    private Set<String> addresses = AddressSet.empty();
+    private final PlacementIndex placementIndex = new PlacementIndex();
+    // Brokers that disconnected within their grace period, with the queues they had. Their queues are not placed
+    // elsewhere until the grace period expires, so that a broker that reconnects keeps its queues.
+    private final Map<String, DisconnectedBroker> disconnectedBrokers = new HashMap<>();
+    // Addresses being deployed on a newly added broker, which must not be placed again until the deployment is done
+    private final Set<String> deploying = new HashSet<>();
+    // Addresses that could not be placed because all brokers are at capacity
+    private final Set<String> pending = new LinkedHashSet<>();
+    private volatile int numPending = 0;
+    // Queues found holding messages by the last rebalance, which are checked after the other candidates
+    private final Set<String> nonEmpty = new HashSet<>();
+
+    // Latest address update not yet applied. Guarded by this, as it is set from outside the group executor
+    private Set<String> pendingAddresses;
+    private CompletableFuture<Void> pendingResult;
+
+    GroupState(String groupId, SerialExecutor executor, PlacementStrategyProvider strategyProvider, PlacementStore placementStore, BrokerCapacity capacity) {
+        this.groupId = groupId;
+        this.executor = executor;
+        this.strategyProvider = strategyProvider;
+        this.placementStore = placementStore;
+        this.capacity = capacity;
+    }
+
+    SerialExecutor getExecutor() {
+        return executor;
+    }
+
+    synchronized CompletableFuture<Void> getPendingResult() {
+        return pendingResult;
+    }
+
+    synchronized void setPendingUpdate(Set<String> addresses, CompletableFuture<Void> result) {
+        this.pendingAddresses = addresses;
+        this.pendingResult = result;
+    }
+
+    /**
+     * Apply the latest address update, including any updates that arrived while it was waiting.
+     */
+    void applyPendingUpdate() throws InterruptedException {
+        Set<String> latest;
+        synchronized (this) {
+            latest = pendingAddresses;
+            pendingAddresses = null;
+            pendingResult = null;
+        }
+        if (latest != null) {
+            addressesUpdated(latest);
+        }
+    }
+
+    /**
+     * Returns the number of queues on each broker of the group and how close they are to capacity. May be called
+     * from any thread.
+     */
+    GroupStatus getStatus() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        Map<String, Double> utilization = new LinkedHashMap<>();
+        brokerSnapshot.forEach((brokerId, broker) -> {
+            counts.put(brokerId, broker.getNumQueues());
+            if (capacity.isLimited()) {
+                utilization.put(brokerId, capacity.getUtilization(broker));
+            }
+        });
+        return new GroupStatus(counts, utilization, numPending);
+    }
+
+    void addressesUpdated(Set<String> updated) throws InterruptedException {
+        if (updated.equals(addresses)) {
+            return;
+        }
+
+        Set<String> removed = AddressSet.difference(addresses, updated);
+        if (!removed.isEmpty()) {
+            pending.removeAll(removed);
+            deleteAddresses(removed);
+        }
+
+        Set<String> added = AddressSet.difference(updated, addresses);
+        addresses = updated;
+        if (!removed.isEmpty() && !pending.isEmpty()) {
+            // Deleted queues may have made room for the pending addresses
+            added = new LinkedHashSet<>(added);
+            added.addAll(pending);
+        }
+        if (!added.isEmpty()) {
+            placeAddresses(added);
+        }
+        numPending = pending.size();
+
+        log.info("Updated addresses for " + groupId + ": " + addresses);
+    }
+
+    /**
+     * The group is no longer part of the address config. Queues are left as is on the brokers.
+     */
+    void groupRemoved() {
+        addresses = AddressSet.empty();
+        pending.clear();
+        numPending = 0;
+    }
+
+    /**
+     * Add a broker to the group. A broker with the same id as a broker that is connected or within its grace period
+     * is a reconnect, and only the difference between its previous queues and its current queues is fixed.
+     *
+     * The queues placed as a result are deployed without holding the group executor, so that brokers joining the
+     * group at the same time deploy their queues concurrently. The returned future completes once the result has
+     * been committed on the group executor.
+     */
+    CompletableFuture<Void> brokerAdded(String brokerId, Broker broker) throws InterruptedException {
+        Set<String> previousQueues = null;
+        DisconnectedBroker disconnected = disconnectedBrokers.remove(brokerId);
+        if (disconnected != null) {
+            previousQueues = disconnected.queues;
+        }
+        Broker replaced = brokerMap.put(brokerId, broker);
+        if (replaced != null) {
+            // Reconnected before the previous connection was detected as closed
+            previousQueues = placementIndex.getQueueNames(brokerId);
+        }
+        brokerSnapshot = new LinkedHashMap<>(brokerMap);
+        placementIndex.setQueues(brokerId, broker.getQueueNames());
+
+        if (previousQueues != null) {
+            reconcileBroker(brokerId, broker, previousQueues);
+        } else {
+            log.info("Broker " + brokerId + " in group " + groupId + " was added, distributing " + addresses.size() + " addresses");
+        }
+        return placeAddressesAsync(addresses);
+    }
+
+    void brokerRemoved(String brokerId) throws InterruptedException {
+        boolean disconnected = disconnectedBrokers.remove(brokerId) != null;
+        if (!brokerMap.containsKey(brokerId)) {
+            if (disconnected) {
+                placementStore.brokerRemoved(groupId, brokerId);
+                placeAddresses(addresses);
+                log.info("Broker " + brokerId + " in group " + groupId + " was removed within its grace period");
+            } else {
+                log.info("Broker was already removed, ignoring");
+            }
+            return;
+        }
+        brokerMap.remove(brokerId);
+        brokerSnapshot = new LinkedHashMap<>(brokerMap);
+        placementIndex.brokerRemoved(brokerId);
+        placementStore.brokerRemoved(groupId, brokerId);
+        // Ensure queues that were only on the removed broker are recreated on other brokers.
+        placeAddresses(addresses);
+        log.info("Broker " +  brokerId + " in group " + groupId + " was removed");
+    }
+
+    /**
+     * The connection to a broker was lost. The queues of the broker are kept assigned to it for the grace period,
+     * after which they are placed on other brokers by {@link #expireDisconnectedBrokers()}.
+     *
+     * @param broker The broker of the lost connection, which is ignored if the broker has since reconnected, or null
+     *               if the broker of the connection was never created, in which case the disconnect is ignored
+     * @param disconnectTime The {@link System#nanoTime()} of the disconnect, which the grace period starts from
+     */
+    void brokerDisconnected(String brokerId, Broker broker, long gracePeriod, long disconnectTime) throws InterruptedException {
+        if (broker == null) {
+            log.info("Broker " + brokerId + " in group " + groupId + " disconnected before it was added, ignoring disconnect");
+            return;
+        }
+        if (brokerMap.get(brokerId) != broker) {
+            log.info("Broker " + brokerId + " in group " + groupId + " is not connected or has reconnected, ignoring disconnect");
+            return;
+        }
+        if (gracePeriod <= 0) {
+            brokerRemoved(brokerId);
+            return;
+        }
+        brokerMap.remove(brokerId);
+        brokerSnapshot = new LinkedHashMap<>(brokerMap);
+        Set<String> queues = placementIndex.getQueueNames(brokerId);
+        placementIndex.brokerRemoved(brokerId);
+        disconnectedBrokers.put(brokerId, new DisconnectedBroker(queues, disconnectTime + TimeUnit.MILLISECONDS.toNanos(gracePeriod)));
+        log.info("Broker " + brokerId + " in group " + groupId + " disconnected, keeping its " + queues.size() + " queues for " + gracePeriod + " ms");
+    }
+
+    /**
+     * Place the queues of brokers whose grace period has expired on the remaining brokers.
+     */
+    void expireDisconnectedBrokers() throws InterruptedException {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, DisconnectedBroker>> it = disconnectedBrokers.entrySet().iterator();
+        boolean expired = false;
+        while (it.hasNext()) {
+            Map.Entry<String, DisconnectedBroker> entry = it.next();
+            if (now - entry.getValue().deadline >= 0) {
+                log.info("Broker " + entry.getKey() + " in group " + groupId + " did not reconnect within its grace period, removing");
+                it.remove();
+                placementStore.brokerRemoved(groupId, entry.getKey());
+                expired = true;
+            }
+        }
+        if (expired) {
+            placeAddresses(addresses);
+        }
+    }
+
+    /**
+     * The queues of a broker changed other than by the scheduler. The index is updated to the queues the broker
+     * has, queues it lost are deployed again and queues of addresses that are not in the group are deleted.
+     *
+     * @param broker The broker reporting the change, which is ignored if it is no longer the connected broker
+     */
+    void brokerInventoryChanged(String brokerId, Broker broker) throws InterruptedException {
+        if (brokerMap.get(brokerId) != broker) {
+            return;
+        }
+        Set<String> previousQueues = placementIndex.getQueueNames(brokerId);
+        Set<String> actual = new HashSet<>(broker.getQueueNames());
+        if (actual.equals(previousQueues)) {
+            return;
+        }
+        List<String> lost = new ArrayList<>(previousQueues);
+        lost.removeAll(actual);
+        List<String> found = new ArrayList<>(actual);
+        found.removeAll(previousQueues);
+        placementIndex.setQueues(brokerId, actual);
+        placementStore.queuesDeleted(groupId, brokerId, lost);
+        placementStore.queuesDeployed(groupId, brokerId, found);
+        log.info("Queues of broker " + brokerId + " in group " + groupId + " changed, " + lost.size() + " lost and " + found.size() + " found");
+        reconcileBroker(brokerId, broker, previousQueues);
+    }
+
+    /**
+     * Deploy the queues a broker is missing from its previous queues, and delete queues of addresses that are not in
+     * the group, as after a broker reconnects.
+     */
+    private void reconcileBroker(String brokerId, Broker broker, Set<String> previousQueues) throws InterruptedException {
+        Set<String> actual = placementIndex.getQueueNames(brokerId);
+        List<String> missing = new ArrayList<>();
+        for (String address : previousQueues) {
+            if (addresses.contains(address) && !actual.contains(address)) {
+                missing.add(address);
+            }
+        }
+        List<String> extra = new ArrayList<>();
+        for (String address : actual) {
+            if (!addresses.contains(address)) {
+                extra.add(address);
+            }
+        }
+        log.info("Reconciling broker " + brokerId + " in group " + groupId + ", deploying " + missing.size() + " missing and deleting " + extra.size() + " removed queues");
+
+        if (!missing.isEmpty()) {
+            recordDeployed(waitForCompletion("deploying", Collections.singletonMap(brokerId, missing), Collections.singletonMap(brokerId, broker.deployQueues(missing))));
+        }
+        if (!extra.isEmpty()) {
+            recordDeleted(waitForCompletion("deleting", Collections.singletonMap(brokerId, extra), Collections.singletonMap(brokerId, broker.deleteQueues(extra))));
+        }
+    }
+
+    /**
+     * Move queues between brokers, each move taking one permit from the budget. Strategies that balance the queue
+     * counts move queues from the brokers with the most queues to the brokers with the least, if the difference
+     * exceeds the threshold, given as a fraction of the mean number of queues. Other strategies move queues that
+     * are not on the broker the strategy now selects for them.
+     * Queues are deployed on the target before being deleted from the source, so that an address always has a queue.
+     * Deleting a queue drops its messages, so only queues that hold no messages on the source are moved.
+     */
+    void rebalance(AtomicInteger budget, double threshold) throws InterruptedException {
+        if (!pending.isEmpty()) {
+            // The load of the brokers may have dropped below their capacity
+            placeAddresses(new LinkedHashSet<>(pending));
+        }
+        if (brokerMap.size() < 2 || addresses.isEmpty()) {
+            return;
+        }
+
+        Map<String, Set<String>> placed = new HashMap<>();
+        brokerMap.keySet().forEach(brokerId -> {
+            Set<String> queues = placementIndex.getQueueNames(brokerId);
+            queues.retainAll(addresses);
+            placed.put(brokerId, queues);
+        });
+
+        // Moves by source broker and by target broker
+        Map<String, List<String>> deletes = new HashMap<>();
+        Map<String, List<String>> deploys = new HashMap<>();
+        PlacementStrategy strategy = strategyProvider.getStrategy(groupId, addresses);
+        if (strategy.balancesQueueCounts()) {
+            balanceQueueCounts(placed, deletes, deploys, budget, threshold);
+        } else {
+            moveToSelectedBrokers(strategy, placed, deletes, deploys, budget);
+        }
+        if (deploys.isEmpty()) {
+            return;
+        }
+
+        Map<String, CompletableFuture<Map<String, Throwable>>> results = new HashMap<>();
+        deploys.forEach((brokerId, moved) -> results.put(brokerId, brokerMap.get(brokerId).deployQueues(moved)));
+        Map<String, List<String>> deployed = waitForCompletion("moving", deploys, results);
+        recordDeployed(deployed);
+
+        // Queues that could not be deployed on the target are left on the source, as are queues that received
+        // messages during the move, which then have a queue on both brokers
+        Set<String> moved = new HashSet<>();
+        deployed.values().forEach(moved::addAll);
+        results.clear();
+        for (Map.Entry<String, List<String>> entry : deletes.entrySet()) {
+            List<String> queues = entry.getValue();
+            queues.retainAll(moved);
+            queues.retainAll(findEmptyQueues(entry.getKey(), queues));
+            results.put(entry.getKey(), brokerMap.get(entry.getKey()).deleteQueues(queues));
+        }
+        Map<String, List<String>> deleted = waitForCompletion("deleting moved", deletes, results);
+        recordDeleted(deleted);
+        log.info("Moved " + deleted.values().stream().mapToInt(List::size).sum() + " queues in group " + groupId + " to brokers " + deploys.keySet());
+    }
+
+    private void balanceQueueCounts(Map<String, Set<String>> placed, Map<String, List<String>> deletes, Map<String, List<String>> deploys, AtomicInteger budget, double threshold) throws InterruptedException {
+        double mean = placed.values().stream().mapToInt(Set::size).sum() / (double) placed.size();
+        Comparator<String> byNumQueues = Comparator.comparingInt(brokerId -> placed.get(brokerId).size());
+        Set<String> checked = new HashSet<>();
+        Set<String> empty = new HashSet<>();
+        while (true) {
+            String source = Collections.max(placed.keySet(), byNumQueues);
+            String target = Collections.min(placed.keySet(), byNumQueues);
+            int skew = placed.get(source).size() - placed.get(target).size();
+            if (skew <= 1 || skew <= threshold * mean || !hasRoom(target, deploys) || budget.get() <= 0) {
+                break;
+            }
+            List<String> candidates = new ArrayList<>();
+            for (String address : placed.get(source)) {
+                if (!placed.get(target).contains(address)) {
+                    candidates.add(address);
+                }
+            }
+            Optional<String> address = candidates.stream().filter(empty::contains).findFirst();
+            if (!address.isPresent()) {
+                // Check the message counts of as many candidates as there are moves left in one round
+                List<String> unchecked = candidates.stream()
+                        .filter(a -> !checked.contains(a))
+                        .sorted(Comparator.comparing(nonEmpty::contains))
+                        .limit(Math.max(1, budget.get()))
+                        .collect(Collectors.toList());
+                checked.addAll(unchecked);
+                empty.addAll(findEmptyQueues(source, unchecked));
+                address = candidates.stream().filter(empty::contains).findFirst();
+            }
+            if (!address.isPresent() || budget.getAndDecrement() <= 0) {
+                break;
+            }
+            placed.get(source).remove(address.get());
+            placed.get(target).add(address.get());
+            deletes.computeIfAbsent(source, id -> new ArrayList<>()).add(address.get());
+            deploys.computeIfAbsent(target, id -> new ArrayList<>()).add(address.get());
+        }
+        rememberNonEmpty(checked, empty);
+    }
+
+    private void moveToSelectedBrokers(PlacementStrategy strategy, Map<String, Set<String>> placed, Map<String, List<String>> deletes, Map<String, List<String>> deploys, AtomicInteger budget) throws InterruptedException {
+        // Target broker of each queue to move, by source broker
+        Map<String, Map<String, String>> candidates = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : placed.entrySet()) {
+            for (String address : entry.getValue()) {
+                String target = strategy.selectBroker(address, brokerMap);
+                if (target != null && !target.equals(entry.getKey()) && !placed.get(target).contains(address)) {
+                    candidates.computeIfAbsent(entry.getKey(), id -> new LinkedHashMap<>()).put(address, target);
+                }
+            }
+        }
+
+        Set<String> checked = new HashSet<>();
+        Set<String> empty = new HashSet<>();
+        for (Map.Entry<String, Map<String, String>> entry : candidates.entrySet()) {
+            if (budget.get() <= 0) {
+                break;
+            }
+            List<String> unchecked = entry.getValue().keySet().stream()
+                    .sorted(Comparator.comparing(nonEmpty::contains))
+                    .limit(budget.get())
+                    .collect(Collectors.toList());
+            checked.addAll(unchecked);
+            Set<String> found = findEmptyQueues(entry.getKey(), unchecked);
+            empty.addAll(found);
+            for (String address : unchecked) {
+                String target = entry.getValue().get(address);
+                if (!found.contains(address) || !hasRoom(target, deploys) || budget.getAndDecrement() <= 0) {
+                    continue;
+                }
+                deletes.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).add(address);
+                deploys.computeIfAbsent(target, id -> new ArrayList<>()).add(address);
+            }
+        }
+        rememberNonEmpty(checked, empty);
+    }
+
+    private void rememberNonEmpty(Set<String> checked, Set<String> empty) {
+        checked.removeAll(empty);
+        nonEmpty.removeAll(empty);
+        nonEmpty.addAll(checked);
+        nonEmpty.retainAll(addresses);
+    }
+
+    /**
+     * Returns the queues of a broker that hold no messages. Queues whose message count could not be read are
+     * treated as holding messages.
+     */
+    private Set<String> findEmptyQueues(String brokerId, Collection<String> queues) throws InterruptedException {
+        Broker broker = brokerMap.get(brokerId);
+        Map<String, CompletableFuture<Long>> counts = new LinkedHashMap<>();
+        for (String address : queues) {
+            counts.put(address, broker.getMessageCountAsync(address));
+        }
+        Set<String> empty = new HashSet<>();
+        for (Map.Entry<String, CompletableFuture<Long>> entry : counts.entrySet()) {
+            try {
+                if (entry.getValue().get() == 0) {
+                    empty.add(entry.getKey());
+                }
+            } catch (ExecutionException e) {
+                log.debug("Error getting message count of queue " + entry.getKey(), e.getCause());
+            }
+        }
+        return empty;
+    }
+
+    private boolean hasRoom(String brokerId, Map<String, List<String>> deploys) {
+        return capacity.getRemaining(brokerMap.get(brokerId)) > deploys.getOrDefault(brokerId, Collections.emptyList()).size();
+    }
+
+    private Map<String, List<String>> computePlacement(Set<String> toPlace) {
+        pending.removeAll(toPlace);
+        if (!disconnectedBrokers.isEmpty() || !deploying.isEmpty()) {
+            toPlace = new HashSet<>(toPlace);
+            for (DisconnectedBroker disconnected : disconnectedBrokers.values()) {
+                toPlace.removeAll(disconnected.queues);
+            }
+            toPlace.removeAll(deploying);
+        }
+        if (brokerMap.isEmpty() || toPlace.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        PlacementStrategy strategy = strategyProvider.getStrategy(groupId, addresses);
+        Map<String, List<String>> placement = strategy.place(toPlace, brokerMap);
+        if (capacity.isLimited()) {
+            placement = limitToCapacity(strategy, placement);
+        }
+        numPending = pending.size();
+        return placement;
+    }
+
+    /**
+     * Trim a placement to the remaining capacity of each broker. Addresses that do not fit on the broker they were
+     * placed on are placed again on the brokers that still have room, and addresses that do not fit anywhere are
+     * held pending until capacity is freed.
+     */
+    private Map<String, List<String>> limitToCapacity(PlacementStrategy strategy, Map<String, List<String>> proposed) {
+        Map<String, Long> remaining = new HashMap<>();
+        brokerMap.forEach((brokerId, broker) -> remaining.put(brokerId, capacity.getRemaining(broker)));
+
+        Map<String, List<String>> placement = new LinkedHashMap<>();
+        Set<String> placed = new HashSet<>();
+        while (true) {
+            Set<String> overflow = new LinkedHashSet<>();
+            proposed.forEach((brokerId, queues) -> {
+                for (String address : queues) {
+                    long left = remaining.get(brokerId);
+                    if (left > 0) {
+                        placement.computeIfAbsent(brokerId, id -> new ArrayList<>()).add(address);
+                        placed.add(address);
+                        remaining.put(brokerId, left - 1);
+                    } else {
+                        overflow.add(address);
+                    }
+                }
+            });
+            overflow.removeAll(placed);
+
+            Map<String, Broker> available = new LinkedHashMap<>();
+            brokerMap.forEach((brokerId, broker) -> {
+                if (remaining.get(brokerId) > 0) {
+                    available.put(brokerId, broker);
+                }
+            });
+            if (overflow.isEmpty() || available.isEmpty()) {
+                if (!overflow.isEmpty()) {
+                    pending.addAll(overflow);
+                    log.warn("Brokers in group " + groupId + " are at capacity " + capacity + ", " + pending.size() + " addresses are pending");
+                }
+                return placement;
+            }
+            proposed = strategy.place(overflow, available);
+        }
+    }
+
+    private CompletableFuture<Void> placeAddressesAsync(Set<String> toPlace) {
+        Map<String, List<String>> placement = computePlacement(toPlace);
+        if (placement.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Map<String, Broker> brokers = new HashMap<>();
+        Map<String, CompletableFuture<Map<String, Throwable>>> results = new HashMap<>();
+        placement.forEach((brokerId, placed) -> {
+            deploying.addAll(placed);
+            brokers.put(brokerId, brokerMap.get(brokerId));
+            results.put(brokerId, brokers.get(brokerId).deployQueues(placed));
+        });
+
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        CompletableFuture.allOf(results.values().toArray(new CompletableFuture[0])).whenComplete((v, cause) -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        commitPlacement(placement, brokers, results);
+                        committed.complete(null);
+                    } catch (Exception e) {
+                        committed.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                committed.completeExceptionally(e);
+            }
+        });
+        return committed;
+    }
+
+    private void commitPlacement(Map<String, List<String>> placement, Map<String, Broker> brokers,
+                                 Map<String, CompletableFuture<Map<String, Throwable>>> results) throws InterruptedException {
+        placement.values().forEach(deploying::removeAll);
+        Map<String, List<String>> deployed = waitForCompletion("deploying", placement, results);
+        // Brokers removed or reconnected while the queues were being deployed no longer have them in the placement
+        deployed.keySet().removeIf(brokerId -> brokerMap.get(brokerId) != brokers.get(brokerId));
+        recordDeployed(deployed);
+
+        // Addresses removed while the queues were being deployed were not deleted on the broker
+        Map<String, List<String>> stale = new HashMap<>();
+        Map<String, CompletableFuture<Map<String, Throwable>>> deleted = new HashMap<>();
+        deployed.forEach((brokerId, queues) -> {
+            List<String> removed = new ArrayList<>();
+            for (String address : queues) {
+                if (!addresses.contains(address)) {
+                    removed.add(address);
+                }
+            }
+            Broker broker = brokerMap.get(brokerId);
+            if (!removed.isEmpty() && broker != null) {
+                stale.put(brokerId, removed);
+                deleted.put(brokerId, broker.deleteQueues(removed));
+            }
+        });
+        recordDeleted(waitForCompletion("deleting", stale, deleted));
+
+        // Addresses that failed to deploy or whose broker went away were skipped by placements in the meantime
+        Set<String> unplaced = new LinkedHashSet<>();
+        placement.values().forEach(unplaced::addAll);
+        deployed.values().forEach(unplaced::removeAll);
+        unplaced.retainAll(addresses);
+        if (!unplaced.isEmpty()) {
+            log.info("Placing " + unplaced.size() + " addresses in group " + groupId + " again");
+            placeAddresses(unplaced);
+        }
+    }
+
+    private void placeAddresses(Set<String> toPlace) throws InterruptedException {
+        Map<String, List<String>> placement = computePlacement(toPlace);
+        if (placement.isEmpty()) {
+            return;
+        }
+
+        Map<String, CompletableFuture<Map<String, Throwable>>> results = new HashMap<>();
+        placement.forEach((brokerId, placed) -> results.put(brokerId, brokerMap.get(brokerId).deployQueues(placed)));
+        recordDeployed(waitForCompletion("deploying", placement, results));
+    }
+
+    /**
+     * Delete the queues of removed addresses on the brokers that have them, rather than on every broker.
+     */
+    private void deleteAddresses(Set<String> removed) throws InterruptedException {
+        Map<String, List<String>> requested = placementIndex.byBroker(removed);
+        Map<String, CompletableFuture<Map<String, Throwable>>> results = new HashMap<>();
+        requested.forEach((brokerId, queues) -> {
+            Broker broker = brokerMap.get(brokerId);
+            if (broker != null) {
+                results.put(brokerId, broker.deleteQueues(queues));
+            }
+        });
+        recordDeleted(waitForCompletion("deleting", requested, results));
+    }
+
+    private void recordDeployed(Map<String, List<String>> deployed) {
+        deployed.forEach((brokerId, queues) -> {
+            placementIndex.queuesDeployed(brokerId, queues);
+            placementStore.queuesDeployed(groupId, brokerId, queues);
+        });
+    }
+
+    private void recordDeleted(Map<String, List<String>> deleted) {
+        deleted.forEach((brokerId, queues) -> {
+            placementIndex.queuesDeleted(brokerId, queues);
+            placementStore.queuesDeleted(groupId, brokerId, queues);
+        });
+    }
+
+    /**
+     * Wait for the operations on each broker to complete and log failures.
+     *
+     * @param requested The addresses of each operation, by broker id
+     * @param results The result of each operation, by broker id
+     * @return The addresses that succeeded, by broker id
+     */
+    private Map<String, List<String>> waitForCompletion(String operation, Map<String, ? extends Collection<String>> requested,
+                                                        Map<String, CompletableFuture<Map<String, Throwable>>> results) throws InterruptedException {
+        Map<String, List<String>> succeeded = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<Map<String, Throwable>>> entry : results.entrySet()) {
+            String brokerId = entry.getKey();
+            List<String> done = new ArrayList<>(requested.get(brokerId));
+            try {
+                Map<String, Throwable> failures = entry.getValue().get();
+                failures.forEach((address, cause) -> log.warn("Error " + operation + " queue " + address, cause));
+                done.removeAll(failures.keySet());
+            } catch (ExecutionException e) {
+                log.warn("Error " + operation + " queues", e.getCause());
+                done.clear();
+            }
+            succeeded.put(brokerId, done);
+        }
+        return succeeded;
+    }
+
+    private static class DisconnectedBroker {
+        private final Set<String> queues;
+        private final long deadline;
+
+        private DisconnectedBroker(Set<String> queues, long deadline) {
+            this.queues = queues;
+            this.deadline = deadline;
+        }
+    }
+}
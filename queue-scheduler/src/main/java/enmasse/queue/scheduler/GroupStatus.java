@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the queues of a group and how close its brokers are to their capacity.
+ */
+public class GroupStatus {
+    private final Map<String, Long> queueCounts;
+    private final Map<String, Double> utilization;
+    private final int numPending;
+
+    public GroupStatus(Map<String, Long> queueCounts, Map<String, Double> utilization, int numPending) {
+        this.queueCounts = queueCounts;
+        this.utilization = utilization;
+        this.numPending = numPending;
+    }
+
+    /**
+     * Returns the number of queues on each broker.
+     */
+    public Map<String, Long> getQueueCounts() {
+        return queueCounts;
+    }
+
+    /**
+     * Returns the fraction of the capacity in use on each broker. Brokers without a capacity limit are left out.
+     */
+    public Map<String, Double> getUtilization() {
+        return utilization;
+    }
+
+    /**
+     * Returns the number of addresses that could not be placed because all brokers are at capacity.
+     */
+    public int getNumPending() {
+        return numPending;
+    }
+}
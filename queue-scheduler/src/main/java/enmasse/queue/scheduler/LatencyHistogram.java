@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with fixed buckets. Recording is lock-free, so that it can be done on the hot path.
+ */
+public class LatencyHistogram {
+    private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60};
+
+    private final long[] bucketNanos = new long[BUCKETS.length];
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            bucketNanos[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < bucketNanos.length && nanos > bucketNanos[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns the upper bounds of the buckets in seconds, excluding the last unbounded bucket.
+     */
+    public static double[] getBuckets() {
+        return BUCKETS.clone();
+    }
+
+    /**
+     * Returns the number of recorded latencies per bucket, with the last element being the unbounded bucket.
+     * The counts are not cumulative.
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Places each address on the broker with the least number of queues. Addresses already deployed on a broker are
+ * left where they are, so that changes in the broker list do not affect where queues are scheduled.
+ */
+public class LeastQueuesPlacementStrategy implements PlacementStrategy {
+    @Override
+    public boolean balancesQueueCounts() {
+        return true;
+    }
+
+    @Override
+    public Map<String, List<String>> place(Collection<String> addresses, Map<String, Broker> brokers) {
+        Map<String, List<String>> placement = new LinkedHashMap<>();
+        if (brokers.isEmpty()) {
+            return placement;
+        }
+
+        // Queue counts are tracked locally while placing, as nothing is deployed until placement is done
+        Map<String, Long> numQueues = new HashMap<>();
+        brokers.forEach((id, broker) -> numQueues.put(id, broker.getNumQueues()));
+        PriorityQueue<String> brokerByNumQueues = new PriorityQueue<>(brokers.size(), Comparator.comparingLong(numQueues::get));
+        brokerByNumQueues.addAll(brokers.keySet());
+
+        for (String address : PlacementStrategy.unplacedAddresses(addresses, brokers)) {
+            String brokerId = brokerByNumQueues.poll();
+            placement.computeIfAbsent(brokerId, id -> new ArrayList<>()).add(address);
+            numQueues.put(brokerId, numQueues.get(brokerId) + 1);
+            brokerByNumQueues.offer(brokerId);
+        }
+        return placement;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Places each address on the broker with the most headroom, based on the last load snapshot of each broker. Every
+ * metric is normalized against the busiest broker of the group and weighted, so that a broker with a few deep and
+ * busy queues is considered more loaded than one with many idle queues.
+ */
+public class LoadAwarePlacementStrategy implements PlacementStrategy {
+    private final double queueWeight;
+    private final double messageWeight;
+    private final double consumerWeight;
+    private final double memoryWeight;
+
+    public LoadAwarePlacementStrategy() {
+        this(1.0, 1.0, 0.5, 2.0);
+    }
+
+    public LoadAwarePlacementStrategy(double queueWeight, double messageWeight, double consumerWeight, double memoryWeight) {
+        this.queueWeight = queueWeight;
+        this.messageWeight = messageWeight;
+        this.consumerWeight = consumerWeight;
+        this.memoryWeight = memoryWeight;
+    }
+
+    @Override
+    public Map<String, List<String>> place(Collection<String> addresses, Map<String, Broker> brokers) {
+        Map<String, List<String>> placement = new LinkedHashMap<>();
+        if (brokers.isEmpty()) {
+            return placement;
+        }
+        Set<String> unplaced = PlacementStrategy.unplacedAddresses(addresses, brokers);
+
+        Map<String, BrokerLoad> loads = new HashMap<>();
+        Map<String, Long> numQueues = new HashMap<>();
+        long maxQueues = 1;
+        long maxMessages = 1;
+        long maxConsumers = 1;
+        for (Map.Entry<String, Broker> entry : brokers.entrySet()) {
+            BrokerLoad load = entry.getValue().getLoad();
+            long queues = entry.getValue().getNumQueues();
+            loads.put(entry.getKey(), load);
+            numQueues.put(entry.getKey(), queues);
+            maxQueues = Math.max(maxQueues, queues);
+            maxMessages = Math.max(maxMessages, load.getMessageCount());
+            maxConsumers = Math.max(maxConsumers, load.getConsumerCount());
+        }
+        // Keep normalization fixed while placing, so scores stay comparable
+        long queueScale = maxQueues + unplaced.size();
+        long messageScale = maxMessages;
+        long consumerScale = maxConsumers;
+
+        Map<String, Double> scores = new HashMap<>();
+        for (String brokerId : brokers.keySet()) {
+            BrokerLoad load = loads.get(brokerId);
+            scores.put(brokerId, messageWeight * load.getMessageCount() / messageScale
+                    + consumerWeight * load.getConsumerCount() / consumerScale
+                    + memoryWeight * load.getMemoryUtilization());
+        }
+
+        PriorityQueue<String> brokerByLoad = new PriorityQueue<>(brokers.size(),
+                Comparator.comparingDouble(id -> scores.get(id) + queueWeight * numQueues.get(id) / queueScale));
+        brokerByLoad.addAll(brokers.keySet());
+
+        for (String address : unplaced) {
+            String brokerId = brokerByLoad.poll();
+            placement.computeIfAbsent(brokerId, id -> new ArrayList<>()).add(address);
+            numQueues.put(brokerId, numQueues.get(brokerId) + 1);
+            brokerByLoad.offer(brokerId);
+        }
+        return placement;
+    }
+}
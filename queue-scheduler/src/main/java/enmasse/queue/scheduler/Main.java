@@ -16,31 +16,69 @@
 
 package enmasse.queue.scheduler;
 
+import enmasse.discovery.DiscoveryClient;
 import io.vertx.core.Vertx;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
 public class Main {
-    public static void main(String [] args) {
+    private static final long JOURNAL_SYNC_INTERVAL = 100;
+    private static final long JOURNAL_COMPACTION_THRESHOLD = 100000;
+
+    public static void main(String [] args) throws IOException {
+        SchedulerOptions options = SchedulerOptions.fromEnv(System.getenv());
         Vertx vertx = Vertx.vertx();
-        String configHost = getEnvOrThrow("CONFIGURATION_SERVICE_HOST");
-        int configPort = Integer.parseInt(getEnvOrThrow("CONFIGURATION_SERVICE_PORT"));
-        int listenPort = 55667;
 
+        // Only keep a replicator when there are standby schedulers to stream the placement to
+        boolean replicated = options.replicationEnabled() || options.activeHost() != null;
+        PlacementReplicator replicator = replicated ? new PlacementReplicator(createPlacementStore(options)) : null;
+        PlacementStore placementStore = replicated ? replicator : createPlacementStore(options);
+        SchedulerMetrics metrics = new SchedulerMetrics();
         QueueScheduler scheduler = new QueueScheduler(
-                connection -> Artemis.create(vertx, connection),
-                listenPort);
+                connection -> Artemis.create(vertx, connection, metrics, placementStore),
+                options.strategyProvider(),
+                options.capacityProvider(),
+                placementStore,
+                metrics,
+                options.listenPort());
 
         scheduler.setProtonSaslAuthenticatorFactory(new DummySaslAuthenticatorFactory());
-        ConfigServiceClient configServiceClient = new ConfigServiceClient(configHost, configPort, scheduler);
+        scheduler.setAddressSettleWindow(options.addressSettleWindow());
+        scheduler.setRebalancing(options.rebalanceMovesPerSecond(), options.rebalanceThreshold());
+        scheduler.setBrokerGracePeriod(options.brokerGracePeriod());
+        scheduler.setOnboardingConcurrency(options.onboardingConcurrency());
+        if (options.replicationEnabled()) {
+            scheduler.setReplicator(replicator);
+        }
+        if (options.activeHost() != null) {
+            StandbyClient standbyClient = new StandbyClient(options.activeHost(), options.activePort(), replicator, options.takeoverTimeout());
+            DiscoveryClient activeDiscovery = new DiscoveryClient("podsense", options.activeLabels(), Collections.emptyMap(), Optional.empty());
+            activeDiscovery.addListener(standbyClient);
+            scheduler.setStandby(standbyClient);
+            vertx.deployVerticle(activeDiscovery);
+            vertx.deployVerticle(standbyClient);
+        }
+        if (!options.replicaLabels().isEmpty()) {
+            GroupPartitioner partitioner = new GroupPartitioner(options.replicaHost(), options.replicaPortName());
+            DiscoveryClient discoveryClient = new DiscoveryClient("podsense", options.replicaLabels(), Collections.emptyMap(), Optional.empty());
+            discoveryClient.addListener(partitioner);
+            scheduler.setPartitioner(partitioner);
+            vertx.deployVerticle(discoveryClient);
+        }
+        ConfigServiceClient configServiceClient = new ConfigServiceClient(options.configHost(), options.configPort(), scheduler);
 
         vertx.deployVerticle(configServiceClient);
         vertx.deployVerticle(scheduler);
+        vertx.deployVerticle(new MetricsServer(metrics, scheduler::getGroupStatus, options.metricsPort()));
     }
 
-    private static String getEnvOrThrow(String env) {
-        String value = System.getenv(env);
-        if (value == null) {
-            throw new IllegalArgumentException("No environment " + env + " defined");
+    private static PlacementStore createPlacementStore(SchedulerOptions options) throws IOException {
+        if (options.journalDir() == null) {
+            return PlacementStore.NONE;
         }
-        return value;
+        return PlacementJournal.open(new File(options.journalDir()), JOURNAL_SYNC_INTERVAL, JOURNAL_COMPACTION_THRESHOLD);
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.http.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Serves the scheduler metrics in the Prometheus text format on /metrics.
+ */
+public class MetricsServer extends AbstractVerticle {
+    private static final Logger log = LoggerFactory.getLogger(MetricsServer.class.getName());
+
+    private final SchedulerMetrics metrics;
+    private final Supplier<Map<String, GroupStatus>> groupStatus;
+    private final int port;
+    private volatile HttpServer server;
+
+    public MetricsServer(SchedulerMetrics metrics, Supplier<Map<String, GroupStatus>> groupStatus, int port) {
+        this.metrics = metrics;
+        this.groupStatus = groupStatus;
+        this.port = port;
+    }
+
+    @Override
+    public void start() {
+        server = vertx.createHttpServer();
+        server.requestHandler(request -> {
+            if ("/metrics".equals(request.path())) {
+                request.response()
+                        .putHeader("Content-Type", "text/plain; version=0.0.4")
+                        .end(format(metrics, groupStatus.get()));
+            } else {
+                request.response().setStatusCode(404).end();
+            }
+        });
+        server.listen(port, result -> {
+            if (result.succeeded()) {
+                log.info("Metrics server listening on port " + result.result().actualPort());
+            } else {
+                log.error("Error starting metrics server", result.cause());
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    public int getPort() {
+        if (server == null) {
+            return 0;
+        } else {
+            return server.actualPort();
+        }
+    }
+
+    static String format(SchedulerMetrics metrics, Map<String, GroupStatus> groupStatus) {
+        StringBuilder builder = new StringBuilder();
+
+        header(builder, "queue_scheduler_management_request_seconds", "Latency of management requests", "histogram");
+        metrics.getBrokerMetrics().forEach((brokerId, broker) ->
+                histogram(builder, "queue_scheduler_management_request_seconds", label("broker", brokerId), broker.getRequestLatency()));
+
+        header(builder, "queue_scheduler_management_requests_outstanding", "Management requests waiting for a reply", "gauge");
+        metrics.getBrokerMetrics().forEach((brokerId, broker) ->
+                sample(builder, "queue_scheduler_management_requests_outstanding", label("broker", brokerId), broker.getOutstandingRequests()));
+
+        header(builder, "queue_scheduler_management_request_timeouts_total", "Management requests that timed out", "counter");
+        metrics.getBrokerMetrics().forEach((brokerId, broker) ->
+                sample(builder, "queue_scheduler_management_request_timeouts_total", label("broker", brokerId), broker.getRequestTimeouts()));
+
+        header(builder, "queue_scheduler_config_to_deployed_seconds", "Time from receiving an address config until its queues are deployed", "histogram");
+        histogram(builder, "queue_scheduler_config_to_deployed_seconds", "", metrics.getConfigLatency());
+
+        header(builder, "queue_scheduler_group_queues", "Number of queues in a group", "gauge");
+        groupStatus.forEach((groupId, group) ->
+                sample(builder, "queue_scheduler_group_queues", label("group", groupId), group.getQueueCounts().values().stream().mapToLong(Long::longValue).sum()));
+
+        header(builder, "queue_scheduler_group_pending_addresses", "Addresses that could not be placed because the brokers are at capacity", "gauge");
+        groupStatus.forEach((groupId, group) ->
+                sample(builder, "queue_scheduler_group_pending_addresses", label("group", groupId), group.getNumPending()));
+
+        header(builder, "queue_scheduler_broker_queues", "Number of queues on a broker", "gauge");
+        groupStatus.forEach((groupId, group) -> group.getQueueCounts().forEach((brokerId, count) ->
+                sample(builder, "queue_scheduler_broker_queues", label("group", groupId) + "," + label("broker", brokerId), count)));
+
+        header(builder, "queue_scheduler_broker_utilization", "Fraction of the capacity of a broker in use", "gauge");
+        groupStatus.forEach((groupId, group) -> group.getUtilization().forEach((brokerId, utilization) ->
+                sample(builder, "queue_scheduler_broker_utilization", label("group", groupId) + "," + label("broker", brokerId), utilization)));
+
+        return builder.toString();
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder builder, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        double[] buckets = LatencyHistogram.getBuckets();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += counts[i];
+            sample(builder, name + "_bucket", prefix + label("le", Double.toString(buckets[i])), cumulative);
+        }
+        cumulative += counts[buckets.length];
+        sample(builder, name + "_bucket", prefix + label("le", "+Inf"), cumulative);
+        sample(builder, name + "_sum", labels, histogram.getSumSeconds());
+        sample(builder, name + "_count", labels, cumulative);
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, Object value) {
+        builder.append(name);
+        if (!labels.isEmpty()) {
+            builder.append('{').append(labels).append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Index of which brokers of a group have a queue for each address. It is seeded from the queues a broker has when
+ * it is added and kept up to date with the operations that succeed, so that operations on an address only go to
+ * the brokers that have a queue for it. Not thread safe.
+ *
+ * Addresses are dictionary encoded as int ids, and the brokers of an address are kept as a bit mask over broker
+ * slots, so that an indexed address takes a few dozen bytes rather than the entries of several hash sets. Ids and
+ * slots are reused once their address is on no broker and their broker is removed.
+ */
+class PlacementIndex {
+    private static final int NO_ID = -1;
+
+    // Open addressing table from address to id, with linear probing
+    private String[] table = new String[16];
+    private int[] tableIds = new int[16];
+
+    // Address and broker mask by id, where the mask of id i takes words entries starting at i * words
+    private String[] addresses = new String[16];
+    private long[] masks = new long[16];
+    private int words = 1;
+    private int numIds = 0;
+    private int[] freeIds = new int[16];
+    private int numFreeIds = 0;
+
+    private final Map<String, Integer> brokerSlots = new HashMap<>();
+    private final List<String> slotBrokers = new ArrayList<>();
+
+    /**
+     * Replace the queues known for a broker.
+     */
+    void setQueues(String brokerId, Collection<String> queues) {
+        brokerRemoved(brokerId);
+        queuesDeployed(brokerId, queues);
+    }
+
+    void queuesDeployed(String brokerId, Collection<String> queues) {
+        if (queues.isEmpty()) {
+            return;
+        }
+        int slot = getOrCreateSlot(brokerId);
+        for (String address : queues) {
+            int id = find(address);
+            if (id == NO_ID) {
+                id = insert(address);
+            }
+            masks[id * words + slot / 64] |= 1L << slot;
+        }
+    }
+
+    void queuesDeleted(String brokerId, Collection<String> queues) {
+        Integer slot = brokerSlots.get(brokerId);
+        if (slot == null) {
+            return;
+        }
+        for (String address : queues) {
+            int id = find(address);
+            if (id != NO_ID) {
+                clear(id, slot);
+            }
+        }
+    }
+
+    void brokerRemoved(String brokerId) {
+        Integer slot = brokerSlots.remove(brokerId);
+        if (slot == null) {
+            return;
+        }
+        for (int id = 0; id < numIds; id++) {
+            if (addresses[id] != null) {
+                clear(id, slot);
+            }
+        }
+        slotBrokers.set(slot, null);
+    }
+
+    /**
+     * Returns a copy of the queues known to be on a broker.
+     */
+    Set<String> getQueueNames(String brokerId) {
+        Set<String> queues = new HashSet<>();
+        Integer slot = brokerSlots.get(brokerId);
+        if (slot != null) {
+            for (int id = 0; id < numIds; id++) {
+                if (addresses[id] != null && isSet(id, slot)) {
+                    queues.add(addresses[id]);
+                }
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Returns the brokers known to have a queue for an address.
+     */
+    Set<String> getBrokers(String address) {
+        int id = find(address);
+        if (id == NO_ID) {
+            return Collections.emptySet();
+        }
+        Set<String> brokers = new HashSet<>();
+        for (int slot = 0; slot < slotBrokers.size(); slot++) {
+            if (isSet(id, slot)) {
+                brokers.add(slotBrokers.get(slot));
+            }
+        }
+        return brokers;
+    }
+
+    /**
+     * Group addresses by the brokers that have a queue for them. Addresses without a queue are left out.
+     */
+    Map<String, List<String>> byBroker(Collection<String> addresses) {
+        Map<String, List<String>> result = new HashMap<>();
+        for (String address : addresses) {
+            int id = find(address);
+            if (id == NO_ID) {
+                continue;
+            }
+            for (int slot = 0; slot < slotBrokers.size(); slot++) {
+                if (isSet(id, slot)) {
+                    result.computeIfAbsent(slotBrokers.get(slot), b -> new ArrayList<>()).add(address);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of addresses with a queue on any broker.
+     */
+    int size() {
+        return numIds - numFreeIds;
+    }
+
+    private boolean isSet(int id, int slot) {
+        return (masks[id * words + slot / 64] & (1L << slot)) != 0;
+    }
+
+    private void clear(int id, int slot) {
+        masks[id * words + slot / 64] &= ~(1L << slot);
+        for (int i = id * words; i < (id + 1) * words; i++) {
+            if (masks[i] != 0) {
+                return;
+            }
+        }
+        release(id);
+    }
+
+    private int getOrCreateSlot(String brokerId) {
+        Integer existing = brokerSlots.get(brokerId);
+        if (existing != null) {
+            return existing;
+        }
+        int slot = slotBrokers.indexOf(null);
+        if (slot < 0) {
+            slot = slotBrokers.size();
+            slotBrokers.add(brokerId);
+        } else {
+            slotBrokers.set(slot, brokerId);
+        }
+        if (slot >= words * 64) {
+            widenMasks(words + 1);
+        }
+        brokerSlots.put(brokerId, slot);
+        return slot;
+    }
+
+    private void widenMasks(int newWords) {
+        long[] widened = new long[addresses.length * newWords];
+        for (int id = 0; id < numIds; id++) {
+            System.arraycopy(masks, id * words, widened, id * newWords, words);
+        }
+        masks = widened;
+        words = newWords;
+    }
+
+    private int find(String address) {
+        int mask = table.length - 1;
+        for (int i = address.hashCode() & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].equals(address)) {
+                return tableIds[i];
+            }
+        }
+        return NO_ID;
+    }
+
+    private int insert(String address) {
+        int id;
+        if (numFreeIds > 0) {
+            id = freeIds[--numFreeIds];
+        } else {
+            if (numIds == addresses.length) {
+                addresses = Arrays.copyOf(addresses, numIds * 2);
+                masks = Arrays.copyOf(masks, numIds * 2 * words);
+            }
+            id = numIds++;
+        }
+        addresses[id] = address;
+
+        // Keep the table at most half full
+        if (2 * (size() + 1) > table.length) {
+            rehash(table.length * 2);
+        }
+        put(address, id);
+        return id;
+    }
+
+    private void put(String address, int id) {
+        int mask = table.length - 1;
+        int i = address.hashCode() & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = address;
+        tableIds[i] = id;
+    }
+
+    private void release(int id) {
+        String address = addresses[id];
+        addresses[id] = null;
+        if (numFreeIds == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+        }
+        freeIds[numFreeIds++] = id;
+
+        // Remove from the table, shifting back entries of the probe sequence that follow it
+        int mask = table.length - 1;
+        int i = address.hashCode() & mask;
+        while (!table[i].equals(address)) {
+            i = (i + 1) & mask;
+        }
+        table[i] = null;
+        for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+            int home = table[j].hashCode() & mask;
+            // Move the entry into the hole if the hole lies on its probe sequence from home to j
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                tableIds[i] = tableIds[j];
+                table[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldTable = table;
+        int[] oldIds = tableIds;
+        table = new String[capacity];
+        tableIds = new int[capacity];
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != null) {
+                put(oldTable[i], oldIds[i]);
+            }
+        }
+    }
+}
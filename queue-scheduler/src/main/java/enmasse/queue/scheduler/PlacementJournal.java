@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A placement store backed by an append-only journal on local disk. Changes are appended to the journal as they
+ * happen, and the journal is synced to disk periodically, so that many changes share one sync. When the journal
+ * grows beyond a threshold, the current placement is written to a snapshot and the journal is truncated.
+ *
+ * The snapshot and the journal use the same record format. Records set or clear queues, so replaying a journal
+ * that was already compacted into the snapshot, as after a crash during compaction, gives the same placement.
+ */
+public class PlacementJournal implements PlacementStore, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PlacementJournal.class.getName());
+    private static final String SNAPSHOT_FILE = "placement.snapshot";
+    private static final String JOURNAL_FILE = "placement.journal";
+    static final byte DEPLOYED = 1;
+    static final byte DELETED = 2;
+
+    private final File directory;
+    private final long compactionThreshold;
+    private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // Queues by broker, by group. Guarded by this along with the journal stream
+    private final Map<String, Map<String, Set<String>>> placement = new HashMap<>();
+    private FileOutputStream journalFile;
+    private DataOutputStream journal;
+    private long journalRecords = 0;
+    private boolean dirty = false;
+
+    private PlacementJournal(File directory, long compactionThreshold) {
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Open the journal in a directory, loading the placement from the snapshot and journal found there.
+     *
+     * @param directory Directory of the journal, created if it does not exist
+     * @param syncInterval Interval between syncs of the journal to disk, in milliseconds
+     * @param compactionThreshold Number of journal records after which the journal is compacted into the snapshot
+     */
+    public static PlacementJournal open(File directory, long syncInterval, long compactionThreshold) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        PlacementJournal journal = new PlacementJournal(directory, compactionThreshold);
+        long start = System.nanoTime();
+        journal.load();
+        log.info("Loaded placement of " + journal.placement.size() + " groups from " + directory + " in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        journal.syncExecutor.scheduleWithFixedDelay(journal::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    @Override
+    public synchronized void queuesDeployed(String groupId, String brokerId, Collection<String> addresses) {
+        append(DEPLOYED, groupId, brokerId, addresses);
+    }
+
+    @Override
+    public synchronized void queuesDeleted(String groupId, String brokerId, Collection<String> addresses) {
+        append(DELETED, groupId, brokerId, addresses);
+    }
+
+    @Override
+    public synchronized void brokerRemoved(String groupId, String brokerId) {
+        Set<String> queues = placement.getOrDefault(groupId, Collections.emptyMap()).get(brokerId);
+        if (queues != null) {
+            append(DELETED, groupId, brokerId, new ArrayList<>(queues));
+        }
+    }
+
+    @Override
+    public synchronized Set<String> getQueues(String brokerId) {
+        Set<String> queues = new HashSet<>();
+        for (Map<String, Set<String>> brokers : placement.values()) {
+            queues.addAll(brokers.getOrDefault(brokerId, Collections.emptySet()));
+        }
+        return queues;
+    }
+
+    @Override
+    public synchronized Map<String, Map<String, Set<String>>> getPlacement() {
+        Map<String, Map<String, Set<String>>> copy = new HashMap<>();
+        placement.forEach((groupId, brokers) -> {
+            Map<String, Set<String>> brokersCopy = new HashMap<>();
+            brokers.forEach((brokerId, queues) -> brokersCopy.put(brokerId, new HashSet<>(queues)));
+            copy.put(groupId, brokersCopy);
+        });
+        return copy;
+    }
+
+    /**
+     * Sync the journal to disk, and compact it if it has grown beyond the threshold.
+     */
+    public synchronized void sync() {
+        try {
+            if (dirty) {
+                journal.flush();
+                journalFile.getFD().sync();
+                dirty = false;
+            }
+            if (journalRecords > compactionThreshold) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.warn("Error syncing placement journal", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        syncExecutor.shutdown();
+        sync();
+        journal.close();
+    }
+
+    private void append(byte type, String groupId, String brokerId, Collection<String> addresses) {
+        apply(type, groupId, brokerId, addresses);
+        try {
+            writeRecord(journal, type, groupId, brokerId, addresses);
+            journalRecords++;
+            dirty = true;
+        } catch (IOException e) {
+            log.warn("Error writing placement journal", e);
+        }
+    }
+
+    private void apply(byte type, String groupId, String brokerId, Collection<String> addresses) {
+        Map<String, Set<String>> brokers = placement.computeIfAbsent(groupId, id -> new HashMap<>());
+        Set<String> queues = brokers.computeIfAbsent(brokerId, id -> new HashSet<>());
+        if (type == DEPLOYED) {
+            queues.addAll(addresses);
+        } else {
+            queues.removeAll(addresses);
+            if (queues.isEmpty()) {
+                brokers.remove(brokerId);
+            }
+            if (brokers.isEmpty()) {
+                placement.remove(groupId);
+            }
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        File file = new File(directory, JOURNAL_FILE);
+        readRecords(snapshotFile);
+        long numRecords = readRecords(file);
+        journalFile = new FileOutputStream(file, true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalFile));
+        if (numRecords < 0) {
+            // Records appended after a partial record would not be readable
+            log.warn("Placement journal ends with a partial record, compacting");
+            compact();
+        } else {
+            journalRecords = numRecords;
+        }
+    }
+
+    /**
+     * Apply the records of a file to the placement. A record cut short by a crash ends the file.
+     *
+     * @return the number of records read, or -1 if the file ends with a partial record
+     */
+    private long readRecords(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long numRecords = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (readRecord(input, this::apply)) {
+                numRecords++;
+            }
+            return numRecords;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private void compact() throws IOException {
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        File tmpFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmpFile)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+            for (Map.Entry<String, Map<String, Set<String>>> group : placement.entrySet()) {
+                for (Map.Entry<String, Set<String>> broker : group.getValue().entrySet()) {
+                    writeRecord(output, DEPLOYED, group.getKey(), broker.getKey(), broker.getValue());
+                }
+            }
+            output.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        journal.close();
+        journalFile = new FileOutputStream(new File(directory, JOURNAL_FILE), false);
+        journal = new DataOutputStream(new BufferedOutputStream(journalFile));
+        log.info("Compacted " + journalRecords + " placement journal records");
+        journalRecords = 0;
+    }
+
+    /**
+     * Receives the records read from a journal.
+     */
+    interface RecordHandler {
+        void handle(byte type, String groupId, String brokerId, Collection<String> addresses);
+    }
+
+    /**
+     * Read one record and pass it to the handler.
+     *
+     * @return false if the input ended before the record
+     * @throws EOFException if the input ends within the record
+     */
+    static boolean readRecord(DataInputStream input, RecordHandler handler) throws IOException {
+        int type = input.read();
+        if (type == -1) {
+            return false;
+        }
+        String groupId = input.readUTF();
+        String brokerId = input.readUTF();
+        int numAddresses = input.readInt();
+        List<String> addresses = new ArrayList<>(numAddresses);
+        for (int i = 0; i < numAddresses; i++) {
+            addresses.add(input.readUTF());
+        }
+        handler.handle((byte) type, groupId, brokerId, addresses);
+        return true;
+    }
+
+    static void writeRecord(DataOutputStream output, byte type, String groupId, String brokerId, Collection<String> addresses) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(groupId);
+        output.writeUTF(brokerId);
+        output.writeInt(addresses.size());
+        for (String address : addresses) {
+            output.writeUTF(address);
+        }
+    }
+}
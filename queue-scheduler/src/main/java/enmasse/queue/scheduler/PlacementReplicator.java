@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.queue.scheduler;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.proton.ProtonQoS;
+import io.vertx.proton.ProtonSender;
+import org.apache.qpid.proton.Proton;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A placement store that streams the placement to standby schedulers, in the record format of the placement
+ * journal. A standby attaching gets the current placement as a snapshot, followed by the changes made after it.
+ *
+ * Changes are sent presettled, as a standby that loses its link reattaches and gets a new snapshot. A standby that
+ * does not keep up with the changes is detached for the same reason, instead of buffering changes for it.
+ */
+public class PlacementReplicator implements PlacementStore {
+    private static final Logger log = LoggerFactory.getLogger(PlacementReplicator.class.getName());
+    public static final String ADDRESS = "placement";
+    private static final int SNAPSHOT_MESSAGE_SIZE = 1024 * 1024;
+
+    private final PlacementStore delegate;
+
+    // Queues by broker, by group, and the attached standbys. Guarded by this, so that changes are sent in the order
+    // they are applied
+    private final Map<String, Map<String, Set<String>>> placement;
+    private final List<Standby> standbys = new ArrayList<>();
+
+    public PlacementReplicator(PlacementStore delegate) {
+        this.delegate = delegate;
+        this.placement = new HashMap<>(delegate.getPlacement());
+    }
+
+    @Override
+    public synchronized void queuesDeployed(String groupId, String brokerId, Collection<String> addresses) {
+        delegate.queuesDeployed(groupId, brokerId, addresses);
+        apply(PlacementJournal.DEPLOYED, groupId, brokerId, addresses);
+    }
+
+    @Override
+    public synchronized void queuesDeleted(String groupId, String brokerId, Collection<String> addresses) {
+        delegate.queuesDeleted(groupId, brokerId, addresses);
+        apply(PlacementJournal.DELETED, groupId, brokerId, addresses);
+    }
+
+    @Override
+    public synchronized void brokerRemoved(String groupId, String brokerId) {
+        Set<String> queues = placement.getOrDefault(groupId, Collections.emptyMap()).get(brokerId);
+        if (queues != null) {
+            queuesDeleted(groupId, brokerId, new ArrayList<>(queues));
+        }
+    }
+
+    @Override
+    public synchronized Set<String> getQueues(String brokerId) {
+        Set<String> queues = new HashSet<>();
+        for (Map<String, Set<String>> brokers : placement.values()) {
+            queues.addAll(brokers.getOrDefault(brokerId, Collections.emptySet()));
+        }
+        return queues;
+    }
+
+    @Override
+    public synchronized Map<String, Map<String, Set<String>>> getPlacement() {
+        Map<String, Map<String, Set<String>>> copy = new HashMap<>();
+        placement.forEach((groupId, brokers) -> {
+            Map<String, Set<String>> brokersCopy = new HashMap<>();
+            brokers.forEach((brokerId, queues) -> brokersCopy.put(brokerId, new HashSet<>(queues)));
+            copy.put(groupId, brokersCopy);
+        });
+        return copy;
+    }
+
+    /**
+     * Apply a message of placement records streamed by the active scheduler.
+     */
+    public void applyMessage(Message message) throws IOException {
+        byte [] records = ((Data) message.getBody()).getValue().getArray();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(records));
+        PlacementJournal.RecordHandler handler = (type, groupId, brokerId, addresses) -> {
+            if (type == PlacementJournal.DEPLOYED) {
+                queuesDeployed(groupId, brokerId, addresses);
+            } else {
+                queuesDeleted(groupId, brokerId, addresses);
+            }
+        };
+        while (PlacementJournal.readRecord(input, handler)) {
+            // Records are applied as they are read
+        }
+    }
+
+    /**
+     * Remove all queues from the placement, before a new snapshot is applied.
+     */
+    public synchronized void clear() {
+        getPlacement().forEach((groupId, brokers) ->
+                brokers.forEach((brokerId, queues) -> queuesDeleted(groupId, brokerId, queues)));
+    }
+
+    /**
+     * Stream the placement to a standby attaching a receiver. Must be called on the context of the sender.
+     */
+    public void standbyAttached(ProtonSender sender) {
+        Standby standby = new Standby(Vertx.currentContext(), sender);
+        sender.setQoS(ProtonQoS.AT_MOST_ONCE);
+        sender.closeHandler(result -> standbyDetached(standby));
+        sender.open();
+
+        List<byte []> snapshot = new ArrayList<>();
+        synchronized (this) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream output = new DataOutputStream(bytes);
+                for (Map.Entry<String, Map<String, Set<String>>> group : placement.entrySet()) {
+                    for (Map.Entry<String, Set<String>> broker : group.getValue().entrySet()) {
+                        PlacementJournal.writeRecord(output, PlacementJournal.DEPLOYED, group.getKey(), broker.getKey(), broker.getValue());
+                        if (bytes.size() >= SNAPSHOT_MESSAGE_SIZE) {
+                            snapshot.add(bytes.toByteArray());
+                            bytes.reset();
+                        }
+                    }
+                }
+                if (bytes.size() > 0) {
+                    snapshot.add(bytes.toByteArray());
+                }
+            } catch (IOException e) {
+                log.error("Error encoding placement snapshot", e);
+                sender.close();
+                return;
+            }
+            standbys.add(standby);
+        }
+        log.info("Standby attached, sending placement snapshot of " + snapshot.size() + " messages");
+        for (byte [] records : snapshot) {
+            sender.send(createMessage(records));
+        }
+    }
+
+    private synchronized void standbyDetached(Standby standby) {
+        if (standbys.remove(standby)) {
+            log.info("Standby detached");
+        }
+        standby.detached = true;
+        standby.sender.close();
+    }
+
+    private void apply(byte type, String groupId, String brokerId, Collection<String> addresses) {
+        Map<String, Set<String>> brokers = placement.computeIfAbsent(groupId, id -> new HashMap<>());
+        Set<String> queues = brokers.computeIfAbsent(brokerId, id -> new HashSet<>());
+        if (type == PlacementJournal.DEPLOYED) {
+            queues.addAll(addresses);
+        } else {
+            queues.removeAll(addresses);
+            if (queues.isEmpty()) {
+                brokers.remove(brokerId);
+            }
+            if (brokers.isEmpty()) {
+                placement.remove(groupId);
+            }
+        }
+
+        if (standbys.isEmpty()) {
+            return;
+        }
+        byte [] record;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PlacementJournal.writeRecord(new DataOutputStream(bytes), type, groupId, brokerId, addresses);
+            record = bytes.toByteArray();
+        } catch (IOException e) {
+            log.error("Error encoding placement record", e);
+            return;
+        }
+        for (Standby standby : standbys) {
+            standby.context.runOnContext(v -> standby.send(record));
+        }
+    }
+
+    private static Message createMessage(byte [] records) {
+        Message message = Proton.message();
+        message.setBody(new Data(new Binary(records)));
+        return message;
+    }
+
+    private class Standby {
+        private final Context context;
+        private final ProtonSender sender;
+        private volatile boolean detached = false;
+
+        private Standby(Context context, ProtonSender sender) {
+            this.context = context;
+            this.sender = sender;
+        }
+
+        private void send(byte [] record) {
+            if (detached) {
+                return;
+            }
+            if (sender.getSession().getConnection().isDisconnected()) {
+                standbyDetached(this);
+            } else if (sender.sendQueueFull()) {
+                log.warn("Standby is not keeping up with placement changes, detaching it");
+                standbyDetached(this);
+            } else {
+                sender.send(createMessage(record));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the queues deployed on each broker, so that the placement survives restarts of the scheduler.
+ */
+public interface PlacementStore {
+    /**
+     * A store that does not keep anything.
+     */
+    PlacementStore NONE = new PlacementStore() {};
+
+    default void queuesDeployed(String groupId, String brokerId, Collection<String> addresses) {
+    }
+
+    default void queuesDeleted(String groupId, String brokerId, Collection<String> addresses) {
+    }
+
+    /**
+     * The broker was removed from the group, so the queues last known to be deployed on it are forgotten.
+     */
+    default void brokerRemoved(String groupId, String brokerId) {
+    }
+
+    /**
+     * Returns the queues last known to be deployed on a broker.
+     */
+    default Set<String> getQueues(String brokerId) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Returns a copy of the placement, as queues by broker, by group.
+     */
+    default Map<String, Map<String, Set<String>>> getPlacement() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Decides which brokers in a group should host the queues of the group.
+ */
+public interface PlacementStrategy {
+    /**
+     * Compute the queues that must be deployed so that all addresses are placed.
+     *
+     * @param addresses The addresses of the group, some of which may already be deployed.
+     * @param brokers The brokers of the group, by broker id.
+     * @return The addresses to deploy, by broker id.
+     */
+    Map<String, List<String>> place(Collection<String> addresses, Map<String, Broker> brokers);
+
+    /**
+     * Returns true if the strategy aims for an even number of queues on each broker, so that queues may be moved
+     * between brokers when the counts are skewed.
+     */
+    default boolean balancesQueueCounts() {
+        return false;
+    }
+
+    /**
+     * Returns the id of the broker the strategy assigns the address to, or null if the strategy does not assign
+     * addresses to particular brokers. Addresses deployed on another broker are moved to it when rebalancing.
+     */
+    default String selectBroker(String address, Map<String, Broker> brokers) {
+        return null;
+    }
+
+    /**
+     * Returns the addresses that are not deployed on any of the brokers.
+     */
+    static Set<String> unplacedAddresses(Collection<String> addresses, Map<String, Broker> brokers) {
+        Set<String> unplaced = new LinkedHashSet<>(addresses);
+        for (Broker broker : brokers.values()) {
+            unplaced.removeAll(broker.getQueueNames());
+        }
+        return unplaced;
+    }
+}
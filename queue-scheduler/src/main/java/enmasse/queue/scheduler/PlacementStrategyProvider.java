@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the placement strategy of a group. Groups with an explicitly configured strategy use that one. Otherwise
+ * a group with more than one address is assumed to be shared, and its addresses are spread over the brokers using
+ * the shared strategy, while the address of a non-shared group is placed on all its brokers.
+ */
+public class PlacementStrategyProvider {
+    private final PlacementStrategy allBrokers = new AllBrokersPlacementStrategy();
+    private final PlacementStrategy sharedStrategy;
+    private final Map<String, PlacementStrategy> groupStrategies;
+
+    public PlacementStrategyProvider(PlacementStrategy sharedStrategy, Map<String, PlacementStrategy> groupStrategies) {
+        this.sharedStrategy = sharedStrategy;
+        this.groupStrategies = groupStrategies;
+    }
+
+    public static PlacementStrategyProvider createDefault() {
+        return new PlacementStrategyProvider(new LeastQueuesPlacementStrategy(), Collections.emptyMap());
+    }
+
+    public PlacementStrategy getStrategy(String groupId, Set<String> addresses) {
+        PlacementStrategy strategy = groupStrategies.get(groupId);
+        if (strategy != null) {
+            return strategy;
+        }
+        // TODO: Fetch this information from somewhere, but assume > 1 address means shared flavor
+        return addresses.size() > 1 ? sharedStrategy : allBrokers;
+    }
+
+    public static PlacementStrategy createStrategy(String name) {
+        switch (name) {
+            case "least-queues":
+                return new LeastQueuesPlacementStrategy();
+            case "rendezvous-hash":
+                return new RendezvousHashPlacementStrategy();
+            case "all-brokers":
+                return new AllBrokersPlacementStrategy();
+            case "load-aware":
+                return new LoadAwarePlacementStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown placement strategy '" + name + "'");
+        }
+    }
+}
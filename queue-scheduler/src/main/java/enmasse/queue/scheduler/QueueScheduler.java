@@ -16,18 +16,24 @@
 
 package enmasse.queue.scheduler;
 
+import enmasse.discovery.Endpoint;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
 import io.vertx.proton.ProtonConnection;
+import io.vertx.proton.ProtonSession;
 import io.vertx.proton.ProtonServer;
 import io.vertx.proton.sasl.ProtonSaslAuthenticatorFactory;
 import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.UnsignedShort;
+import org.apache.qpid.proton.amqp.transport.ConnectionError;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Acts as an arbiter deciding in which broker a queue should run.
@@ -35,16 +41,42 @@ import java.util.concurrent.TimeUnit;
 public class QueueScheduler extends AbstractVerticle implements ConfigListener {
     private static final Logger log = LoggerFactory.getLogger(QueueScheduler.class.getName());
     private static final Symbol groupSymbol = Symbol.getSymbol("qd.route-container-group");
+    private static final String BROKER_KEY = "broker";
+    private static final long BROKER_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
 
-    private final SchedulerState schedulerState = new SchedulerState();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final SchedulerState schedulerState;
+    private final SchedulerMetrics metrics;
     private final BrokerFactory brokerFactory;
     private ProtonSaslAuthenticatorFactory saslAuthenticatorFactory;
+    private long addressSettleWindow = 0;
+    private int rebalanceMovesPerSecond = 0;
+    private long brokerGracePeriod = 0;
+    private ConcurrencyLimiter onboarding = new ConcurrencyLimiter(8);
+    private double rebalanceThreshold;
+    private GroupPartitioner partitioner = GroupPartitioner.single();
+    private PlacementReplicator replicator;
+    private StandbyClient standby;
+    // Open broker connections, so that brokers of groups owned by another replica can be redirected
+    private final Set<ProtonConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile Map<String, Set<String>> latestConfig;
+    private CompletableFuture<Void> rebalancing = CompletableFuture.completedFuture(null);
+    private final AtomicReference<Map<String, Set<String>>> pendingAddresses = new AtomicReference<>();
+    // Timers submitting work to the executor, which are cancelled when stopping
+    private final Set<Long> timers = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped = false;
     private volatile ProtonServer server;
 
     private final int port;
 
     public QueueScheduler(BrokerFactory brokerFactory, int listenPort) {
+        this(brokerFactory, PlacementStrategyProvider.createDefault(), CapacityProvider.createDefault(), PlacementStore.NONE, new SchedulerMetrics(), listenPort);
+    }
+
+    public QueueScheduler(BrokerFactory brokerFactory, PlacementStrategyProvider strategyProvider, CapacityProvider capacityProvider, PlacementStore placementStore, SchedulerMetrics metrics, int listenPort) {
         this.brokerFactory = brokerFactory;
+        this.schedulerState = new SchedulerState(executor, strategyProvider, placementStore, capacityProvider);
+        this.metrics = metrics;
         this.port = listenPort;
     }
 
@@ -53,6 +85,62 @@ public class QueueScheduler extends AbstractVerticle implements ConfigListener {
         this.saslAuthenticatorFactory = saslAuthenticatorFactory;
     }
 
+    /**
+     * Wait for the address config to settle for this long before applying it. Only the latest config received
+     * within the window is applied.
+     */
+    public void setAddressSettleWindow(long addressSettleWindow) {
+        this.addressSettleWindow = addressSettleWindow;
+    }
+
+    /**
+     * Move queues between the brokers of a shared group when the number of queues per broker differs by more than
+     * the threshold, a fraction of the mean number of queues per broker. At most movesPerSecond queues are moved
+     * per second, and 0 disables rebalancing.
+     */
+    public void setRebalancing(int movesPerSecond, double threshold) {
+        this.rebalanceMovesPerSecond = movesPerSecond;
+        this.rebalanceThreshold = threshold;
+    }
+
+    /**
+     * Keep the queues of a disconnected broker assigned to it for this long, so that a broker that reconnects
+     * within the grace period keeps its queues instead of having them placed on other brokers.
+     */
+    public void setBrokerGracePeriod(long brokerGracePeriod) {
+        this.brokerGracePeriod = brokerGracePeriod;
+    }
+
+    /**
+     * Set the maximum number of brokers being onboarded at the same time.
+     */
+    public void setOnboardingConcurrency(int onboardingConcurrency) {
+        this.onboarding = new ConcurrencyLimiter(onboardingConcurrency);
+    }
+
+    /**
+     * Share the groups with other scheduler replicas. Brokers of groups owned by another replica are redirected to
+     * it, and only the addresses of owned groups are placed.
+     */
+    public void setPartitioner(GroupPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * Stream the placement to standby schedulers attaching to this scheduler.
+     */
+    public void setReplicator(PlacementReplicator replicator) {
+        this.replicator = replicator;
+    }
+
+    /**
+     * Run as a standby of another scheduler. Addresses from the configuration service are tracked as usual, but
+     * brokers are only accepted once the standby has taken over.
+     */
+    public void setStandby(StandbyClient standby) {
+        this.standby = standby;
+    }
+
     private static String getGroupId(ProtonConnection connection) {
         Map<Symbol, Object> connectionProperties = connection.getRemoteProperties();
         if (connectionProperties.containsKey(groupSymbol)) {
@@ -66,20 +154,31 @@ public class QueueScheduler extends AbstractVerticle implements ConfigListener {
     public void start() {
         server = ProtonServer.create(vertx);
         server.saslAuthenticatorFactory(saslAuthenticatorFactory);
+        Context context = vertx.getOrCreateContext();
+        partitioner.addListener(() -> context.runOnContext(v -> ownershipChanged()));
         server.connectHandler(connection -> {
             connection.setContainer("queue-scheduler");
+            connections.add(connection);
+            connection.sessionOpenHandler(ProtonSession::open);
+            connection.senderOpenHandler(sender -> {
+                if (replicator != null && StandbyClient.isStandby(connection) && PlacementReplicator.ADDRESS.equals(sender.getRemoteSource().getAddress())) {
+                    replicator.standbyAttached(sender);
+                } else {
+                    sender.close();
+                }
+            });
             connection.openHandler(result -> {
                 connectionOpened(connection);
             }).closeHandler(conn -> {
                 log.info("Broker connection " + connection.getRemoteContainer() + " closed");
-                executeBlocking(() -> schedulerState.brokerRemoved(getGroupId(connection), connection.getRemoteContainer()),
-                        "Error removing broker");
+                connections.remove(connection);
+                brokerRemoved(connection);
                 connection.close();
                 connection.disconnect();
             }).disconnectHandler(protonConnection -> {
                 log.info("Broker connection " + connection.getRemoteContainer() + " disconnected");
-                executeBlocking(() -> schedulerState.brokerRemoved(getGroupId(connection), connection.getRemoteContainer()),
-                        "Error removing broker");
+                connections.remove(connection);
+                brokerRemoved(connection);
                 connection.disconnect();
             });
 
@@ -89,6 +188,29 @@ public class QueueScheduler extends AbstractVerticle implements ConfigListener {
 
             connection.open();
         });
+        if (rebalanceMovesPerSecond > 0) {
+            timers.add(vertx.setPeriodic(1000, id -> {
+                // Skip rounds while the previous one is in progress, so that the rate is not exceeded
+                if (rebalancing.isDone()) {
+                    rebalancing = schedulerState.rebalance(rebalanceMovesPerSecond, rebalanceThreshold);
+                    handleResult(rebalancing, "Error rebalancing queues");
+                }
+            }));
+        }
+        CompletableFuture<Void> active = CompletableFuture.completedFuture(null);
+        if (standby != null) {
+            log.info("QueueScheduler is on standby");
+            active = standby.takeover();
+        }
+        if (!partitioner.discovered().isDone()) {
+            log.info("Waiting for scheduler replicas to be discovered");
+        }
+        // Brokers are only accepted once this replica knows which groups it owns
+        active.thenCombine(partitioner.discovered(), (a, b) -> b)
+                .thenRun(() -> context.runOnContext(v -> listen()));
+    }
+
+    private void listen() {
         server.listen(port, event -> {
             if (event.succeeded()) {
                 log.info("QueueScheduler is up and running");
@@ -98,42 +220,160 @@ public class QueueScheduler extends AbstractVerticle implements ConfigListener {
         });
     }
 
+    /**
+     * Set up management of a broker and deploy its initial queues. Brokers are onboarded concurrently, up to the
+     * onboarding limit, and only adding the broker to its group is ordered with other operations on the group.
+     */
     private void connectionOpened(ProtonConnection connection) {
         log.info("Connection opened from " + connection.getRemoteContainer());
-        Future<Broker> broker = brokerFactory.createBroker(connection);
-        executeBlocking(() -> schedulerState.brokerAdded(getGroupId(connection), connection.getRemoteContainer(), broker.get(30, TimeUnit.SECONDS)),"Error adding broker");
+        if (StandbyClient.isStandby(connection)) {
+            return;
+        }
+        String groupId = getGroupId(connection);
+        String brokerId = connection.getRemoteContainer();
+        if (!partitioner.owns(groupId)) {
+            redirect(connection, groupId);
+            return;
+        }
+        CompletableFuture<Broker> broker = new CompletableFuture<>();
+        connection.attachments().set(BROKER_KEY, Future.class, broker);
+        // Onboarding tasks beyond the limit are started by whichever thread completes a running one
+        Context context = vertx.getOrCreateContext();
+        connection.attachments().set(BrokerFactory.CONTEXT_KEY, Context.class, context);
+
+        handleResult(onboarding.submit(task -> context.runOnContext(v -> task.run()), () -> {
+            long timerId = vertx.setTimer(BROKER_TIMEOUT, id ->
+                    broker.completeExceptionally(new TimeoutException("Timed out creating broker " + brokerId)));
+            brokerFactory.createBroker(connection).whenComplete((created, cause) -> context.runOnContext(v -> {
+                vertx.cancelTimer(timerId);
+                if (cause != null) {
+                    broker.completeExceptionally(cause);
+                } else {
+                    broker.complete(created);
+                }
+            }));
+            return broker.thenCompose(created -> {
+                // Completed on the connection context, so a disconnect is either seen here or ordered after the add
+                if (connection.isDisconnected()) {
+                    log.info("Broker " + brokerId + " disconnected before it was added");
+                    return CompletableFuture.completedFuture(null);
+                }
+                created.setInventoryListener(() -> handleResult(schedulerState.brokerInventoryChanged(groupId, brokerId, created),
+                        "Error reconciling queues of broker " + brokerId));
+                return schedulerState.brokerAdded(groupId, brokerId, created);
+            });
+        }), "Error adding broker");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void brokerRemoved(ProtonConnection connection) {
+        Future<Broker> broker = connection.attachments().get(BROKER_KEY, Future.class);
+        if (broker == null || stopped) {
+            // Connections closed by stopping the scheduler leave the placement as is
+            return;
+        }
+        String groupId = getGroupId(connection);
+        String brokerId = connection.getRemoteContainer();
+        handleResult(schedulerState.brokerDisconnected(groupId, brokerId, broker, brokerGracePeriod),
+                "Error removing broker");
+        if (brokerGracePeriod > 0) {
+            setTimer(brokerGracePeriod, id ->
+                    handleResult(schedulerState.expireDisconnectedBrokers(groupId), "Error removing disconnected brokers"));
+        }
+        // The metrics are shared with a connection of the broker that was opened before this one was closed
+        if (connections.stream().noneMatch(other -> other != connection && brokerId.equals(other.getRemoteContainer()))) {
+            metrics.brokerRemoved(brokerId);
+        }
+    }
+
+    /**
+     * Close the connection of a broker whose group is owned by another replica, telling it where to connect.
+     */
+    private void redirect(ProtonConnection connection, String groupId) {
+        Endpoint owner = partitioner.getOwner(groupId);
+        log.info("Redirecting broker " + connection.getRemoteContainer() + " of group " + groupId + " to " + (owner == null ? "unknown replica" : owner.hostname()));
+        ErrorCondition condition = new ErrorCondition(ConnectionError.REDIRECT, "Group " + groupId + " is scheduled by another replica");
+        if (owner != null) {
+            Map<Symbol, Object> info = new HashMap<>();
+            info.put(Symbol.getSymbol("network-host"), owner.hostname());
+            info.put(Symbol.getSymbol("port"), UnsignedShort.valueOf((short) owner.port()));
+            condition.setInfo(info);
+        }
+        connection.setCondition(condition);
+        connection.close();
+    }
+
+    /**
+     * Redirect the brokers of groups this replica no longer owns, and place the addresses of groups it now owns.
+     */
+    private void ownershipChanged() {
+        for (ProtonConnection connection : connections) {
+            String groupId = getGroupId(connection);
+            if (connection.getRemoteContainer() != null && !StandbyClient.isStandby(connection) && !partitioner.owns(groupId)) {
+                brokerRemoved(connection);
+                redirect(connection, groupId);
+            }
+        }
+        Map<String, Set<String>> config = latestConfig;
+        if (config != null) {
+            applyAddresses(config, System.nanoTime());
+        }
     }
 
     @Override
     public void stop() {
         log.info("Stopping server!");
+        stopped = true;
+        timers.forEach(vertx::cancelTimer);
         if (server != null) {
             server.close();
         }
+        executor.shutdown();
+    }
+
+    private void setTimer(long delay, Handler<Long> handler) {
+        timers.add(vertx.setTimer(delay, id -> {
+            timers.remove(id);
+            handler.handle(id);
+        }));
     }
 
     @Override
     public void addressesChanged(Map<String, Set<String>> addressMap) {
-        executeBlocking(() -> schedulerState.addressesChanged(addressMap), "Error handling address change");
+        long receivedTime = System.nanoTime();
+        if (addressSettleWindow <= 0) {
+            applyAddresses(addressMap, receivedTime);
+        } else if (pendingAddresses.getAndSet(addressMap) == null) {
+            setTimer(addressSettleWindow, id -> applyAddresses(pendingAddresses.getAndSet(null), receivedTime));
+        }
     }
 
-    private void executeBlocking(Task task, String errorMessage) {
-        vertx.executeBlocking(promise -> {
-            try {
-                task.run();
-                promise.complete();
-            } catch (Exception e) {
-                promise.fail(e);
-            }
-        }, true, result -> {
-            if (result.failed()) {
-                log.error(errorMessage, result.cause());
+    private void applyAddresses(Map<String, Set<String>> addressMap, long receivedTime) {
+        if (stopped) {
+            return;
+        }
+        latestConfig = addressMap;
+        Map<String, Set<String>> owned = new HashMap<>();
+        addressMap.forEach((groupId, addresses) -> {
+            if (partitioner.owns(groupId)) {
+                owned.put(groupId, addresses);
             }
         });
+        CompletableFuture<Void> result = schedulerState.addressesChanged(owned);
+        result.thenRun(() -> metrics.getConfigLatency().record(System.nanoTime() - receivedTime));
+        handleResult(result, "Error handling address change");
+    }
+
+    public Map<String, GroupStatus> getGroupStatus() {
+        return schedulerState.getGroupStatus();
     }
 
-    private interface Task {
-        void run() throws Exception;
+    private static void handleResult(CompletableFuture<Void> result, String errorMessage) {
+        result.whenComplete((v, cause) -> {
+            if (cause != null) {
+                log.error(errorMessage, cause);
+            }
+        });
     }
 
     public int getPort() {
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.*;
+
+/**
+ * Places each address on the broker with the highest hash of address and broker id (rendezvous hashing). Placement
+ * only depends on the broker ids, so adding or removing one of B brokers moves about 1/B of the queues, and no
+ * broker needs to be queried to decide where a queue goes. Deployed queues stay where they are when placing, and
+ * are moved to the broker selected for them by rebalancing.
+ */
+public class RendezvousHashPlacementStrategy implements PlacementStrategy {
+    @Override
+    public Map<String, List<String>> place(Collection<String> addresses, Map<String, Broker> brokers) {
+        Map<String, List<String>> placement = new LinkedHashMap<>();
+        if (brokers.isEmpty()) {
+            return placement;
+        }
+        for (String address : PlacementStrategy.unplacedAddresses(addresses, brokers)) {
+            placement.computeIfAbsent(selectBroker(address, brokers.keySet()), id -> new ArrayList<>()).add(address);
+        }
+        return placement;
+    }
+
+    @Override
+    public String selectBroker(String address, Map<String, Broker> brokers) {
+        return selectBroker(address, brokers.keySet());
+    }
+
+    /**
+     * Returns the id of the broker that should own the address.
+     */
+    public static String selectBroker(String address, Collection<String> brokerIds) {
+        String selected = null;
+        long selectedWeight = Long.MIN_VALUE;
+        for (String brokerId : brokerIds) {
+            long weight = weight(address, brokerId);
+            if (selected == null || weight > selectedWeight || (weight == selectedWeight && brokerId.compareTo(selected) < 0)) {
+                selected = brokerId;
+                selectedWeight = weight;
+            }
+        }
+        return selected;
+    }
+
+    private static long weight(String address, String brokerId) {
+        // Finalizer of the splitmix64 generator, spreads the combined hash codes over all 64 bits
+        long z = ((long) address.hashCode() << 32) ^ (brokerId.hashCode() & 0xffffffffL);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics of the queue scheduler.
+ */
+public class SchedulerMetrics {
+    private final Map<String, BrokerMetrics> brokerMetrics = new ConcurrentHashMap<>();
+    private final LatencyHistogram configLatency = new LatencyHistogram();
+
+    public BrokerMetrics getBrokerMetrics(String brokerId) {
+        // Avoid computeIfAbsent for existing brokers, as it locks
+        BrokerMetrics metrics = brokerMetrics.get(brokerId);
+        if (metrics == null) {
+            metrics = brokerMetrics.computeIfAbsent(brokerId, id -> new BrokerMetrics());
+        }
+        return metrics;
+    }
+
+    public void brokerRemoved(String brokerId) {
+        brokerMetrics.remove(brokerId);
+    }
+
+    public Map<String, BrokerMetrics> getBrokerMetrics() {
+        return Collections.unmodifiableMap(brokerMetrics);
+    }
+
+    /**
+     * Latency from receiving an address config until the queues of it have been deployed.
+     */
+    public LatencyHistogram getConfigLatency() {
+        return configLatency;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options for the queue scheduler, read from the environment.
+ */
+public final class SchedulerOptions {
+    private final String configHost;
+    private final int configPort;
+    private final int listenPort;
+    private final PlacementStrategyProvider strategyProvider;
+    private final CapacityProvider capacityProvider;
+    private final long addressSettleWindow;
+    private final int metricsPort;
+    private final int rebalanceMovesPerSecond;
+    private final double rebalanceThreshold;
+    private final String journalDir;
+    private final long brokerGracePeriod;
+    private final int onboardingConcurrency;
+    private final Map<String, String> replicaLabels;
+    private final String replicaHost;
+    private final String replicaPortName;
+    private final String activeHost;
+    private final int activePort;
+    private final long takeoverTimeout;
+    private final Map<String, String> activeLabels;
+    private final boolean replicationEnabled;
+
+    private SchedulerOptions(String configHost, int configPort, int listenPort, PlacementStrategyProvider strategyProvider, CapacityProvider capacityProvider, long addressSettleWindow, int metricsPort, int rebalanceMovesPerSecond, double rebalanceThreshold, String journalDir, long brokerGracePeriod, int onboardingConcurrency, Map<String, String> replicaLabels, String replicaHost, String replicaPortName, String activeHost, int activePort, long takeoverTimeout, Map<String, String> activeLabels, boolean replicationEnabled) {
+        this.configHost = configHost;
+        this.configPort = configPort;
+        this.listenPort = listenPort;
+        this.strategyProvider = strategyProvider;
+        this.capacityProvider = capacityProvider;
+        this.addressSettleWindow = addressSettleWindow;
+        this.metricsPort = metricsPort;
+        this.rebalanceMovesPerSecond = rebalanceMovesPerSecond;
+        this.rebalanceThreshold = rebalanceThreshold;
+        this.journalDir = journalDir;
+        this.brokerGracePeriod = brokerGracePeriod;
+        this.onboardingConcurrency = onboardingConcurrency;
+        this.replicaLabels = replicaLabels;
+        this.replicaHost = replicaHost;
+        this.replicaPortName = replicaPortName;
+        this.activeHost = activeHost;
+        this.activePort = activePort;
+        this.takeoverTimeout = takeoverTimeout;
+        this.activeLabels = activeLabels;
+        this.replicationEnabled = replicationEnabled;
+    }
+
+    public static SchedulerOptions fromEnv(Map<String, String> env) {
+        String configHost = getEnvOrThrow(env, "CONFIGURATION_SERVICE_HOST");
+        int configPort = Integer.parseInt(getEnvOrThrow(env, "CONFIGURATION_SERVICE_PORT"));
+        int listenPort = Integer.parseInt(env.getOrDefault("LISTEN_PORT", "55667"));
+
+        PlacementStrategy sharedStrategy = PlacementStrategyProvider.createStrategy(env.getOrDefault("PLACEMENT_STRATEGY", "least-queues"));
+        Map<String, PlacementStrategy> groupStrategies = new LinkedHashMap<>();
+        parseKeyValues(env.getOrDefault("GROUP_PLACEMENT_STRATEGIES", "")).forEach((groupId, name) ->
+                groupStrategies.put(groupId, PlacementStrategyProvider.createStrategy(name)));
+
+        long maxMemory = Long.parseLong(env.getOrDefault("BROKER_MAX_MEMORY_BYTES", "0"));
+        long queueMemoryEstimate = Long.parseLong(env.getOrDefault("QUEUE_MEMORY_ESTIMATE_BYTES", "1048576"));
+        BrokerCapacity defaultCapacity = new BrokerCapacity(Long.parseLong(env.getOrDefault("BROKER_MAX_QUEUES", "0")), maxMemory, queueMemoryEstimate);
+        Map<String, BrokerCapacity> groupCapacities = new LinkedHashMap<>();
+        parseKeyValues(env.getOrDefault("GROUP_MAX_QUEUES", "")).forEach((groupId, maxQueues) ->
+                groupCapacities.put(groupId, new BrokerCapacity(Long.parseLong(maxQueues), maxMemory, queueMemoryEstimate)));
+
+        long addressSettleWindow = Long.parseLong(env.getOrDefault("ADDRESS_SETTLE_WINDOW_MS", "0"));
+        int metricsPort = Integer.parseInt(env.getOrDefault("METRICS_PORT", "8080"));
+        int rebalanceMovesPerSecond = Integer.parseInt(env.getOrDefault("REBALANCE_MOVES_PER_SECOND", "0"));
+        double rebalanceThreshold = Double.parseDouble(env.getOrDefault("REBALANCE_THRESHOLD", "0.2"));
+        String journalDir = env.get("JOURNAL_DIR");
+        long brokerGracePeriod = Long.parseLong(env.getOrDefault("BROKER_GRACE_PERIOD_MS", "0"));
+        int onboardingConcurrency = Integer.parseInt(env.getOrDefault("ONBOARDING_CONCURRENCY", "8"));
+        Map<String, String> replicaLabels = parseKeyValues(env.getOrDefault("REPLICA_LABELS", ""));
+        String replicaHost = replicaLabels.isEmpty() ? null : getEnvOrThrow(env, "POD_IP");
+        String replicaPortName = env.getOrDefault("REPLICA_PORT_NAME", "amqp");
+        String activeHost = env.get("ACTIVE_SCHEDULER_HOST");
+        int activePort = Integer.parseInt(env.getOrDefault("ACTIVE_SCHEDULER_PORT", "55667"));
+        long takeoverTimeout = Long.parseLong(env.getOrDefault("STANDBY_TAKEOVER_TIMEOUT_MS", "10000"));
+        Map<String, String> activeLabels = activeHost == null ? Collections.emptyMap() : parseKeyValues(getEnvOrThrow(env, "ACTIVE_SCHEDULER_LABELS"));
+        if (activeHost != null && activeLabels.isEmpty()) {
+            throw new IllegalArgumentException("ACTIVE_SCHEDULER_LABELS must select the active scheduler pod");
+        }
+        boolean replicationEnabled = Boolean.parseBoolean(env.getOrDefault("PLACEMENT_REPLICATION_ENABLED", "false"));
+
+        return new SchedulerOptions(configHost, configPort, listenPort, new PlacementStrategyProvider(sharedStrategy, groupStrategies),
+                new CapacityProvider(defaultCapacity, groupCapacities),
+                addressSettleWindow, metricsPort, rebalanceMovesPerSecond, rebalanceThreshold, journalDir, brokerGracePeriod, onboardingConcurrency,
+                replicaLabels, replicaHost, replicaPortName, activeHost, activePort, takeoverTimeout, activeLabels, replicationEnabled);
+    }
+
+    /**
+     * Parses a list of the form key1=value1,key2=value2
+     */
+    static Map<String, String> parseKeyValues(String value) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] keyValue = entry.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid entry '%s', expected key=value", entry));
+            }
+            result.put(keyValue[0].trim(), keyValue[1].trim());
+        }
+        return result;
+    }
+
+    private static String getEnvOrThrow(Map<String, String> env, String envVar) {
+        String var = env.get(envVar);
+        if (var == null) {
+            throw new IllegalArgumentException(String.format("Unable to find value for required environment var '%s'", envVar));
+        }
+        return var;
+    }
+
+    public String configHost() {
+        return configHost;
+    }
+
+    public int configPort() {
+        return configPort;
+    }
+
+    public int listenPort() {
+        return listenPort;
+    }
+
+    public PlacementStrategyProvider strategyProvider() {
+        return strategyProvider;
+    }
+
+    public CapacityProvider capacityProvider() {
+        return capacityProvider;
+    }
+
+    public long addressSettleWindow() {
+        return addressSettleWindow;
+    }
+
+    public int metricsPort() {
+        return metricsPort;
+    }
+
+    public int rebalanceMovesPerSecond() {
+        return rebalanceMovesPerSecond;
+    }
+
+    public double rebalanceThreshold() {
+        return rebalanceThreshold;
+    }
+
+    /**
+     * Returns the directory of the placement journal, or null if placement is not persisted.
+     */
+    public String journalDir() {
+        return journalDir;
+    }
+
+    public long brokerGracePeriod() {
+        return brokerGracePeriod;
+    }
+
+    public int onboardingConcurrency() {
+        return onboardingConcurrency;
+    }
+
+    /**
+     * Returns the labels of the scheduler replicas sharing the groups, or an empty map if the scheduler is not
+     * partitioned.
+     */
+    public Map<String, String> replicaLabels() {
+        return replicaLabels;
+    }
+
+    public String replicaHost() {
+        return replicaHost;
+    }
+
+    public String replicaPortName() {
+        return replicaPortName;
+    }
+
+    /**
+     * Returns the host of the active scheduler, or null if this scheduler is not a standby.
+     */
+    public String activeHost() {
+        return activeHost;
+    }
+
+    public int activePort() {
+        return activePort;
+    }
+
+    public long takeoverTimeout() {
+        return takeoverTimeout;
+    }
+
+    /**
+     * Returns the labels of the active scheduler pod, which a standby must see gone before taking over.
+     */
+    public Map<String, String> activeLabels() {
+        return activeLabels;
+    }
+
+    /**
+     * Returns true if the placement is streamed to standby schedulers.
+     */
+    public boolean replicationEnabled() {
+        return replicationEnabled;
+    }
+}
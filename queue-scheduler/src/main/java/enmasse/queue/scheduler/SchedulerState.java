@@ -15,140 +15,184 @@
  */
 
 package enmasse.queue.scheduler;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Contains the mapping from queue to broker and ensures there is only one modifying the state at a time.
+ * Contains the mapping from queue to broker. The state is partitioned by group, and each group is modified
+ * by one task at a time on its own serial executor. Unrelated groups are scheduled in parallel.
  */
 public class SchedulerState {
-    private static final Logger log = LoggerFactory.getLogger(SchedulerState.class.getName());
-    private final Map<String, Map<String, Broker>> brokerGroupMap = new LinkedHashMap<>();
-    private final Map<String, Set<String>> addressMap = new LinkedHashMap<>();
-
+    private final Executor executor;
+    private final PlacementStrategyProvider strategyProvider;
+    private final PlacementStore placementStore;
+    private final CapacityProvider capacityProvider;
+    private final Map<String, GroupState> groupMap = new ConcurrentHashMap<>();
+    private Map<String, Set<String>> currentConfig = Collections.emptyMap();
+
+    public SchedulerState(Executor executor) {
+        this(executor, PlacementStrategyProvider.createDefault());
+    }
 
-    public synchronized void addressesChanged(Map<String, Set<String>> updatedMap) {
-        Set<String> removedGroups = new HashSet<>(addressMap.keySet());
-        removedGroups.removeAll(updatedMap.keySet());
-        removedGroups.forEach(addressMap::remove);
+    public SchedulerState(Executor executor, PlacementStrategyProvider strategyProvider) {
+        this(executor, strategyProvider, PlacementStore.NONE);
+    }
 
-        updatedMap.forEach(this::groupUpdated);
+    public SchedulerState(Executor executor, PlacementStrategyProvider strategyProvider, PlacementStore placementStore) {
+        this(executor, strategyProvider, placementStore, CapacityProvider.createDefault());
     }
 
-    public synchronized void groupUpdated(String groupId, Set<String> addresses) {
-        Set<String> existing = addressMap.getOrDefault(groupId, Collections.emptySet());
+    public SchedulerState(Executor executor, PlacementStrategyProvider strategyProvider, PlacementStore placementStore, CapacityProvider capacityProvider) {
+        this.executor = executor;
+        this.strategyProvider = strategyProvider;
+        this.placementStore = placementStore;
+        this.capacityProvider = capacityProvider;
+    }
 
-        Set<String> removed = new HashSet<>(existing);
-        removed.removeAll(addresses);
-        if (!removed.isEmpty()) {
-            deleteAddresses(groupId, removed);
+    public synchronized CompletableFuture<Void> addressesChanged(Map<String, Set<String>> updatedMap) {
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (String groupId : currentConfig.keySet()) {
+            if (!updatedMap.containsKey(groupId)) {
+                results.add(execute(groupId, GroupState::groupRemoved));
+            }
         }
 
-        Set<String> added = new HashSet<>(addresses);
-        added.removeAll(existing);
-        if (!added.isEmpty()) {
-            addAddresses(groupId, addresses, added);
+        for (Map.Entry<String, Set<String>> entry : updatedMap.entrySet()) {
+            // Unchanged groups are passed as the same instance by the config client and need no work
+            if (currentConfig.get(entry.getKey()) != entry.getValue()) {
+                results.add(groupUpdated(entry.getKey(), entry.getValue()));
+            }
         }
-
-        addressMap.put(groupId, addresses);
-        log.info("Updated addresses for " + groupId + ": " + addresses);
+        currentConfig = new HashMap<>(updatedMap);
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
     }
 
-
-    public synchronized void brokerAdded(String groupId, String brokerId, Broker broker) {
-        if (!brokerGroupMap.containsKey(groupId)) {
-            brokerGroupMap.put(groupId, new LinkedHashMap<>());
+    /**
+     * Update the addresses of a group. While an update is waiting to be applied, newer updates replace it,
+     * so that only the latest addresses are applied once the group is ready.
+     */
+    public CompletableFuture<Void> groupUpdated(String groupId, Set<String> addresses) {
+        GroupState group = getGroup(groupId);
+        synchronized (group) {
+            CompletableFuture<Void> pending = group.getPendingResult();
+            if (pending != null) {
+                group.setPendingUpdate(addresses, pending);
+                return pending;
+            }
+            CompletableFuture<Void> result = execute(group, GroupState::applyPendingUpdate);
+            group.setPendingUpdate(addresses, result);
+            return result;
         }
+    }
 
-        if (brokerGroupMap.get(groupId).containsKey(brokerId)) {
-            throw new IllegalArgumentException("Broker with id " + brokerId + " already exists in group " + groupId);
-        }
-        brokerGroupMap.get(groupId).put(brokerId, broker);
-
-        Set<String> addresses = addressMap.getOrDefault(groupId, Collections.emptySet());
-        log.info("Broker " + brokerId + " in group " + groupId + " was added, distributing addresses: " + addresses);
-        if (addresses.size() == 1) {
-            broker.deployQueue(addresses.iterator().next());
-        } else {
-            distributeAddressesByNumQueues(groupId, addresses);
-        }
+    /**
+     * Add a broker to a group. Only registering the broker and committing the placement of its queues holds the
+     * group, the queues are deployed concurrently with other operations on the group.
+     */
+    public CompletableFuture<Void> brokerAdded(String groupId, String brokerId, Broker broker) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        execute(getGroup(groupId), group -> group.brokerAdded(brokerId, broker).whenComplete((v, cause) -> {
+            if (cause != null) {
+                result.completeExceptionally(cause);
+            } else {
+                result.complete(null);
+            }
+        })).whenComplete((v, cause) -> {
+            if (cause != null) {
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
     }
 
-    public synchronized void brokerRemoved(String groupId, String brokerId) {
-        Map<String, Broker> brokerMap = brokerGroupMap.get(groupId);
-        if (!brokerMap.containsKey(brokerId)) {
-            log.info("Broker was already removed, ignoring");
-            return;
-        }
-        brokerMap.remove(brokerId);
-        if (brokerMap.isEmpty()) {
-            brokerGroupMap.remove(groupId);
-        }
-        Set<String> addresses = addressMap.getOrDefault(groupId, Collections.emptySet());
-        // If colocated queues, ensure missing queues are recreated on other brokers.
-        if (addresses.size() > 1) {
-            distributeAddressesByNumQueues(groupId, addresses);
-        }
-        log.info("Broker " +  brokerId + " in group " + groupId + " was removed");
+    public CompletableFuture<Void> brokerRemoved(String groupId, String brokerId) {
+        return execute(groupId, group -> group.brokerRemoved(brokerId));
     }
 
-    private void addAddresses(String groupId, Set<String> addresses, Set<String> added) {
+    /**
+     * The connection to a broker was lost. If the broker reconnects within the grace period, it keeps its queues
+     * and only the queues it is missing are deployed. Otherwise its queues are placed on other brokers once
+     * {@link #expireDisconnectedBrokers(String)} is called after the grace period.
+     *
+     * @param broker The broker of the lost connection, so that a disconnect is ignored if the broker has already
+     *               reconnected on a new connection
+     */
+    public CompletableFuture<Void> brokerDisconnected(String groupId, String brokerId, Future<Broker> broker, long gracePeriod) {
+        long disconnectTime = System.nanoTime();
+        return execute(groupId, group -> group.brokerDisconnected(brokerId, getIfDone(broker), gracePeriod, disconnectTime));
+    }
 
-        // TODO: Fetch this information from somewhere, but assume > 1 address means shared flavor
-        if (addresses.size() > 1) {
-            distributeAddressesByNumQueues(groupId, added);
-        } else {
-            distributeAddressesAll(groupId, added);
-        }
+    /**
+     * The queues of a broker changed other than by the scheduler. The group is reconciled with the queues the broker
+     * now has.
+     */
+    public CompletableFuture<Void> brokerInventoryChanged(String groupId, String brokerId, Broker broker) {
+        return execute(groupId, group -> group.brokerInventoryChanged(brokerId, broker));
+    }
+
+    public CompletableFuture<Void> expireDisconnectedBrokers(String groupId) {
+        return execute(groupId, GroupState::expireDisconnectedBrokers);
     }
 
-    private void distributeAddressesByNumQueues(String groupId, Set<String> addresses) {
-        Map<String, Broker> brokerMap = brokerGroupMap.get(groupId);
-        if (brokerMap == null) {
-            return;
+    /**
+     * Move queues between the brokers of groups where the number of queues per broker is skewed by more than the
+     * threshold, a fraction of the mean number of queues per broker. At most maxMoves queues are moved in total.
+     */
+    public CompletableFuture<Void> rebalance(int maxMoves, double threshold) {
+        AtomicInteger budget = new AtomicInteger(maxMoves);
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (GroupState group : groupMap.values()) {
+            results.add(execute(group, g -> g.rebalance(budget, threshold)));
         }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+    }
 
-        Set<String> addressesToDeploy = new HashSet<>(addresses);
+    /**
+     * Returns the queues on each broker and the addresses pending placement, by group.
+     */
+    public Map<String, GroupStatus> getGroupStatus() {
+        Map<String, GroupStatus> status = new TreeMap<>();
+        groupMap.forEach((groupId, group) -> status.put(groupId, group.getStatus()));
+        return status;
+    }
 
-        // Remove addresses that are already distributed. This is to avoid changes in broker list to affect where queues are scheduler
-        for (Broker broker : brokerMap.values()) {
-            addressesToDeploy.removeAll(broker.getQueueNames());
+    private static Broker getIfDone(Future<Broker> broker) {
+        // The broker was added by an earlier task on the group executor, so it is done unless it failed
+        try {
+            return broker.isDone() ? broker.get() : null;
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            return null;
         }
+    }
 
-        PriorityQueue<Broker> brokerByNumQueues = new PriorityQueue<>(brokerMap.size(), (a, b) -> {
-            if (a.getNumQueues() < b.getNumQueues()) {
-                return -1;
-            } else if (a.getNumQueues() > b.getNumQueues()) {
-                return 1;
-            } else {
-                return 0;
-            }
-        });
-
-        brokerByNumQueues.addAll(brokerMap.values());
+    private GroupState getGroup(String groupId) {
+        return groupMap.computeIfAbsent(groupId, id -> new GroupState(id, new SerialExecutor(executor), strategyProvider, placementStore, capacityProvider.getCapacity(id)));
+    }
 
-        for (String address : addressesToDeploy) {
-            Broker broker = brokerByNumQueues.poll();
-            broker.deployQueue(address);
-            brokerByNumQueues.offer(broker);
-        }
+    private CompletableFuture<Void> execute(String groupId, GroupTask task) {
+        return execute(getGroup(groupId), task);
     }
 
-    private void distributeAddressesAll(String groupId, Set<String> addresses) {
-        for (String address : addresses) {
-            for (Broker  broker : brokerGroupMap.getOrDefault(groupId, Collections.emptyMap()).values()) {
-                broker.deployQueue(address);
-            }
+    private CompletableFuture<Void> execute(GroupState group, GroupTask task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            group.getExecutor().execute(() -> {
+                try {
+                    task.run(group);
+                    result.complete(null);
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
         }
+        return result;
     }
 
-    private void deleteAddresses(String groupId, Set<String> removed) {
-        for (Broker broker : brokerGroupMap.getOrDefault(groupId, Collections.emptyMap()).values()) {
-            for (String address : removed) {
-                broker.deleteQueue(address);
-            }
-        }
+    private interface GroupTask {
+        void run(GroupState group) throws Exception;
     }
 }
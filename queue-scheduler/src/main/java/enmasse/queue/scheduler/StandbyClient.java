@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package enmasse.queue.scheduler;
+
+import enmasse.discovery.DiscoveryListener;
+import enmasse.discovery.Host;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.proton.ProtonClient;
+import io.vertx.proton.ProtonConnection;
+import io.vertx.proton.ProtonReceiver;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps a standby scheduler in sync with the active scheduler. The placement streamed by the active scheduler is
+ * applied to the local placement store, so that brokers connecting after a takeover are onboarded with the queues
+ * they already have. The standby takes over when the active scheduler has been unreachable for longer than the
+ * takeover timeout, and discovery confirms that no active scheduler pod is running. An active scheduler that is
+ * only partitioned from the standby keeps serving its brokers, so the standby must not take over from it.
+ */
+public class StandbyClient extends AbstractVerticle implements DiscoveryListener {
+    private static final Logger log = LoggerFactory.getLogger(StandbyClient.class.getName());
+    private static final Symbol standbySymbol = Symbol.getSymbol("queue-scheduler-standby");
+    private static final long RECONNECT_INTERVAL = 1000;
+
+    private final String activeHost;
+    private final int activePort;
+    private final PlacementReplicator placement;
+    private final long takeoverTimeout;
+    private final CompletableFuture<Void> takeover = new CompletableFuture<>();
+    private volatile ProtonConnection connection;
+    private boolean connected = false;
+    private long lastConnected;
+    private volatile Boolean activeRunning;
+
+    public StandbyClient(String activeHost, int activePort, PlacementReplicator placement, long takeoverTimeout) {
+        this.activeHost = activeHost;
+        this.activePort = activePort;
+        this.placement = placement;
+        this.takeoverTimeout = takeoverTimeout;
+    }
+
+    /**
+     * Returns true if the connection is from a standby scheduler rather than a broker.
+     */
+    public static boolean isStandby(ProtonConnection connection) {
+        return Boolean.TRUE.equals(connection.getRemoteProperties().get(standbySymbol));
+    }
+
+    /**
+     * Returns a future completed when the standby takes over from the active scheduler.
+     */
+    public CompletableFuture<Void> takeover() {
+        return takeover;
+    }
+
+    @Override
+    public void start() {
+        lastConnected = System.currentTimeMillis();
+        ProtonClient client = ProtonClient.create(vertx);
+        connect(client);
+        vertx.setPeriodic(RECONNECT_INTERVAL, id -> {
+            if (connected) {
+                lastConnected = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastConnected > takeoverTimeout) {
+                if (Boolean.FALSE.equals(activeRunning)) {
+                    log.info("Active scheduler unreachable for " + takeoverTimeout + " ms and not running, taking over");
+                    vertx.cancelTimer(id);
+                    takeover.complete(null);
+                } else {
+                    log.debug("Active scheduler unreachable, but not confirmed to be gone");
+                }
+            }
+        });
+    }
+
+    /**
+     * Called with the running pods of the active scheduler. Until discovery has reported, the active scheduler is
+     * assumed to be running.
+     */
+    @Override
+    public void hostsChanged(Set<Host> hosts) {
+        log.info("Active scheduler pods: " + hosts);
+        activeRunning = !hosts.isEmpty();
+    }
+
+    private void connect(ProtonClient client) {
+        client.connect(activeHost, activePort, connResult -> {
+            if (takeover.isDone()) {
+                if (connResult.succeeded()) {
+                    connResult.result().disconnect();
+                }
+            } else if (connResult.succeeded()) {
+                ProtonConnection conn = connResult.result();
+                connection = conn;
+                conn.setContainer("queue-scheduler-standby");
+                conn.setProperties(Collections.singletonMap(standbySymbol, true));
+                conn.openHandler(result -> {
+                    if (result.succeeded()) {
+                        connected = true;
+                    }
+                }).closeHandler(result -> disconnected(client, conn))
+                        .disconnectHandler(result -> disconnected(client, conn));
+                conn.open();
+
+                ProtonReceiver receiver = conn.createReceiver(PlacementReplicator.ADDRESS);
+                receiver.openHandler(result -> {
+                    if (result.succeeded()) {
+                        log.info("Replicating placement from active scheduler " + activeHost + ":" + activePort);
+                        // The active scheduler sends a snapshot of the placement on every attach
+                        placement.clear();
+                    }
+                });
+                receiver.closeHandler(result -> conn.close());
+                receiver.handler((delivery, message) -> {
+                    try {
+                        placement.applyMessage(message);
+                    } catch (IOException e) {
+                        log.error("Error decoding placement", e);
+                        conn.close();
+                    }
+                });
+                receiver.open();
+            } else {
+                log.warn("Error connecting to active scheduler " + activeHost + ":" + activePort + ": " + connResult.cause().getMessage());
+                vertx.setTimer(RECONNECT_INTERVAL, id -> connect(client));
+            }
+        });
+    }
+
+    private void disconnected(ProtonClient client, ProtonConnection conn) {
+        if (connection != conn) {
+            return;
+        }
+        log.info("Lost connection to active scheduler");
+        conn.disconnect();
+        connection = null;
+        connected = false;
+        lastConnected = System.currentTimeMillis();
+        if (!takeover.isDone()) {
+            vertx.setTimer(RECONNECT_INTERVAL, id -> connect(client));
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+import org.mockito.internal.util.collections.Sets;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class AddressSetTest {
+    @Test
+    public void testSetOperations() {
+        AddressSet set = AddressSet.of(Arrays.asList("queue3", "queue1", "queue2", "queue1"));
+        assertThat(set.size(), is(3));
+        assertTrue(set.contains("queue2"));
+        assertFalse(set.contains("queue4"));
+        assertThat(set, is(Sets.newSet("queue1", "queue2", "queue3")));
+        assertThat(set.hashCode(), is(Sets.newSet("queue1", "queue2", "queue3").hashCode()));
+    }
+
+    @Test
+    public void testDifference() {
+        AddressSet a = AddressSet.of(Arrays.asList("queue1", "queue2", "queue3", "queue5"));
+        AddressSet b = AddressSet.of(Arrays.asList("queue0", "queue2", "queue4", "queue5"));
+
+        assertThat(AddressSet.difference(a, b), is(Sets.newSet("queue1", "queue3")));
+        assertThat(AddressSet.difference(b, a), is(Sets.newSet("queue0", "queue4")));
+        assertTrue(AddressSet.difference(a, a).isEmpty());
+        assertThat(AddressSet.difference(a, AddressSet.empty()), is((Set<String>) a));
+        assertThat(AddressSet.difference(a, Sets.newSet("queue1", "queue2")), is(Sets.newSet("queue3", "queue5")));
+    }
+
+    @Test
+    public void testSharesInstancesWithPrevious() {
+        AddressSet previous = AddressSet.of(Arrays.asList("queue1", "queue2"));
+        String queue2 = new String("queue2");
+        AddressSet set = AddressSet.of(Arrays.asList("queue3", queue2), previous);
+
+        assertThat(set, is(Sets.newSet("queue2", "queue3")));
+        assertSame(previous.iterator().next(), AddressSet.of(Arrays.asList(new String("queue1")), previous).iterator().next());
+        assertNotSame(queue2, set.iterator().next());
+    }
+}
@@ -16,15 +16,33 @@
 
 package enmasse.queue.scheduler;
 
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
 import io.vertx.proton.ProtonClient;
+import io.vertx.proton.ProtonSender;
+import io.vertx.proton.ProtonServer;
+import io.vertx.proton.ProtonSession;
+import org.apache.activemq.artemis.api.core.RoutingType;
+import org.apache.activemq.artemis.api.core.SimpleString;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Source;
+import org.apache.qpid.proton.message.Message;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -41,8 +59,9 @@ public class ArtemisTest {
     }
 
     @After
-    public void teardown() {
+    public void teardown() throws Exception {
         vertx.close();
+        server.stop();
     }
 
     @Test
@@ -67,4 +86,170 @@ public class ArtemisTest {
         }
         assertThat(numQueues, is(2L));
     }
+
+    @Test
+    public void testManagementWithoutCorrelationIds() throws InterruptedException, ExecutionException, TimeoutException {
+        ProtonClient client = ProtonClient.create(vertx);
+        CompletableFuture<Future<Broker>> promise = new CompletableFuture<>();
+        BrokerMetrics metrics = new BrokerMetrics();
+        client.connect("localhost", 12345, h -> {
+            assertTrue(h.succeeded());
+            promise.complete(Artemis.create(vertx, h.result().open(), 5, metrics, Collections.emptySet()));
+        });
+
+        Artemis artemis = (Artemis)promise.get().get(10, TimeUnit.SECONDS);
+
+        List<CompletableFuture<Void>> deployments = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // The test broker does not provide the connector service factory, so only the queue is created
+            deployments.add(artemis.deployQueueAsync("queue" + i).handle((v, cause) -> null));
+        }
+        CompletableFuture.allOf(deployments.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+
+        Set<String> queues = artemis.getQueueNamesAsync().get(1, TimeUnit.MINUTES);
+        assertThat(queues.size(), is(20));
+        assertThat(queues, hasItem("queue0"));
+        assertThat(queues, hasItem("queue19"));
+
+        artemis.syncQueueNames().get(1, TimeUnit.MINUTES);
+        assertThat(artemis.getNumQueues(), is(20L));
+
+        BrokerLoad load = artemis.sampleLoad().get(1, TimeUnit.MINUTES);
+        assertThat(load.getMessageCount(), is(0L));
+        assertTrue(load.getConnectionCount() > 0);
+        assertThat(artemis.getLoad(), is(load));
+        assertThat(artemis.getMessageCountAsync("queue0").get(1, TimeUnit.MINUTES), is(0L));
+
+        assertThat(metrics.getOutstandingRequests(), is(0L));
+        assertThat(metrics.getRequestTimeouts(), is(0L));
+        assertTrue(Arrays.stream(metrics.getRequestLatency().getCounts()).sum() >= 40);
+    }
+
+    @Test
+    public void testPipelinedManagementWithCorrelationIds() throws Exception {
+        // Echoes the message id as correlation id, and holds the requests while hold is set
+        AtomicReference<ProtonSender> replySender = new AtomicReference<>();
+        AtomicReference<Context> responderContext = new AtomicReference<>();
+        List<Message> held = new CopyOnWriteArrayList<>();
+        AtomicBoolean hold = new AtomicBoolean();
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        ProtonServer responder = ProtonServer.create(vertx);
+        responder.connectHandler(connection -> {
+            responderContext.set(vertx.getOrCreateContext());
+            connection.sessionOpenHandler(ProtonSession::open);
+            connection.receiverOpenHandler(receiver -> {
+                receiver.setTarget(receiver.getRemoteTarget());
+                receiver.handler((delivery, request) -> {
+                    if (hold.get()) {
+                        held.add(request);
+                    } else {
+                        replySender.get().send(createReply(request));
+                    }
+                });
+                receiver.open();
+            });
+            connection.senderOpenHandler(sender -> {
+                Source source = (Source) sender.getRemoteSource();
+                if (source.getDynamic()) {
+                    source = new Source();
+                    source.setAddress("replies");
+                    replySender.set(sender);
+                }
+                sender.setSource(source);
+                sender.open();
+            });
+            connection.open();
+        }).listen(0, result -> port.complete(result.result().actualPort()));
+
+        ProtonClient client = ProtonClient.create(vertx);
+        CompletableFuture<Future<Broker>> promise = new CompletableFuture<>();
+        BrokerMetrics metrics = new BrokerMetrics();
+        client.connect("localhost", port.get(1, TimeUnit.MINUTES), h -> {
+            assertTrue(h.succeeded());
+            promise.complete(Artemis.create(vertx, h.result().open(), 5, metrics, Collections.emptySet()));
+        });
+        Artemis artemis = (Artemis) promise.get().get(1, TimeUnit.MINUTES);
+        long endTime = System.currentTimeMillis() + 60_000;
+        while (metrics.getOutstandingRequests() > 0 && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+        }
+
+        hold.set(true);
+        List<CompletableFuture<Void>> deployments = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            deployments.add(artemis.deployQueueAsync("queue" + i));
+        }
+        endTime = System.currentTimeMillis() + 60_000;
+        while (held.size() < 5 && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(500);
+        assertThat(held.size(), is(5));
+
+        // Replies out of order are matched by correlation id
+        hold.set(false);
+        responderContext.get().runOnContext(v -> {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                replySender.get().send(createReply(held.get(i)));
+            }
+        });
+        CompletableFuture.allOf(deployments.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        assertThat(artemis.getNumQueues(), is(20L));
+        assertThat(metrics.getOutstandingRequests(), is(0L));
+        responder.close();
+    }
+
+    private static Message createReply(Message request) {
+        Message reply = Message.Factory.create();
+        reply.setCorrelationId(request.getMessageId());
+        boolean queueNames = "getQueueNames".equals(request.getApplicationProperties().getValue().get("_AMQ_OperationName"));
+        reply.setBody(new AmqpValue(queueNames ? "[[]]" : "[0]"));
+        return reply;
+    }
+
+    @Test
+    public void testKnownQueuesAreCheckedBeforeBrokerIsAvailable() throws Exception {
+        ProtonClient client = ProtonClient.create(vertx);
+        CompletableFuture<Future<Broker>> promise = new CompletableFuture<>();
+        client.connect("localhost", 12345, h -> {
+            assertTrue(h.succeeded());
+            promise.complete(Artemis.create(vertx, h.result().open(), 10, new BrokerMetrics(), Collections.singleton("lost")));
+        });
+
+        // The broker lost the queue when it restarted
+        Broker artemis = promise.get().get(1, TimeUnit.MINUTES);
+        assertFalse(artemis.getQueueNames().contains("lost"));
+    }
+
+    @Test
+    public void testQueuesChangedOutsideSchedulerAreNoticed() throws Exception {
+        ProtonClient client = ProtonClient.create(vertx);
+        CompletableFuture<Future<Broker>> promise = new CompletableFuture<>();
+        client.connect("localhost", 12345, h -> {
+            assertTrue(h.succeeded());
+            promise.complete(Artemis.create(vertx, h.result().open()));
+        });
+        Artemis artemis = (Artemis)promise.get().get(10, TimeUnit.SECONDS);
+        CompletableFuture<Void> changed = new CompletableFuture<>();
+        artemis.setInventoryListener(() -> changed.complete(null));
+
+        server.getServer().createQueue(SimpleString.toSimpleString("external"), RoutingType.ANYCAST, SimpleString.toSimpleString("external"), null, false, false);
+        waitForQueues(artemis, Collections.singleton("external"));
+        changed.get(1, TimeUnit.MINUTES);
+
+        server.getServer().destroyQueue(SimpleString.toSimpleString("external"));
+        waitForQueues(artemis, Collections.emptySet());
+
+        // The periodic sync leaves out the queues used to talk to the broker
+        artemis.syncQueueNames().get(1, TimeUnit.MINUTES);
+        assertThat(artemis.getNumQueues(), is(0L));
+    }
+
+    private static void waitForQueues(Artemis artemis, Set<String> expected) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + 10_000;
+        while (!artemis.getQueueNames().equals(expected) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+        }
+        assertThat(artemis.getQueueNames(), is(expected));
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BulkOperationTest {
+    @Test
+    public void testPartialFailure() throws Exception {
+        Map<String, Throwable> failures = BulkOperation.execute(Arrays.asList("queue1", "queue2", "queue3"), address -> {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            if (address.equals("queue2")) {
+                result.completeExceptionally(new IllegalStateException("queue2 exists"));
+            } else if (address.equals("queue3")) {
+                throw new IllegalArgumentException("bad address");
+            } else {
+                result.complete(null);
+            }
+            return result;
+        }).get();
+
+        assertThat(failures.size(), is(2));
+        assertThat(failures.get("queue2"), instanceOf(IllegalStateException.class));
+        assertThat(failures.get("queue3"), instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test
+    public void testAllSucceeded() throws Exception {
+        Map<String, Throwable> failures = BulkOperation.execute(Arrays.asList("queue1", "queue2"), address -> CompletableFuture.completedFuture(null)).get();
+        assertTrue(failures.isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+    @Test
+    public void testLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        List<CompletableFuture<String>> tasks = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        AtomicInteger started = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            CompletableFuture<String> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(limiter.submit(() -> {
+                started.incrementAndGet();
+                return task;
+            }));
+        }
+        assertThat(started.get(), is(2));
+
+        // The third task is started when the first completes, the fourth when the third is timed out by the caller
+        tasks.get(0).complete("task0");
+        assertThat(results.get(0).get(), is("task0"));
+        assertThat(started.get(), is(3));
+        results.get(2).completeExceptionally(new TimeoutException());
+        assertThat(started.get(), is(4));
+        tasks.get(1).complete("task1");
+        tasks.get(3).complete("task3");
+        assertThat(results.get(1).get(), is("task1"));
+        assertThat(results.get(3).get(), is("task3"));
+        assertTrue(results.get(2).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testTimedOutBeforeStart() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> firstResult = limiter.submit(() -> first);
+        CompletableFuture<String> waitingResult = limiter.submit(() -> {
+            throw new IllegalStateException("Should not be started");
+        });
+        waitingResult.completeExceptionally(new TimeoutException());
+
+        first.complete("first");
+        assertThat(firstResult.get(), is("first"));
+        assertThat(limiter.submit(() -> CompletableFuture.completedFuture("next")).get(), is("next"));
+    }
+}
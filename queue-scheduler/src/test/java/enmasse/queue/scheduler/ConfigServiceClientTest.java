@@ -5,6 +5,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -54,6 +55,28 @@ public class ConfigServiceClientTest {
         assertThat(listener.addressMap.get("group2"), hasItem("queue3"));
     }
 
+    @Test
+    public void testUnchangedGroupsAreReused() throws Exception {
+        testConfigServ.deployConfig("{\"queue1\":{\"store_and_forward\":true,\"multicast\":false,\"group_id\":\"group1\"},\"queue2\":{\"store_and_forward\":true,\"multicast\":false,\"group_id\":\"group2\"}}");
+        waitForPort(() -> listener.addressMap == null || !listener.addressMap.containsKey("group1") ? 0 : 1, 1, TimeUnit.MINUTES);
+        Map<String, Set<String>> first = listener.addressMap;
+
+        testConfigServ.deployConfig("{\"queue1\":{\"store_and_forward\":true,\"multicast\":false,\"group_id\":\"group1\"},\"queue3\":{\"store_and_forward\":true,\"multicast\":false,\"group_id\":\"group2\"}}");
+        waitForPort(() -> listener.addressMap.get("group2").contains("queue3") ? 1 : 0, 1, TimeUnit.MINUTES);
+
+        assertSame(first.get("group1"), listener.addressMap.get("group1"));
+        assertThat(listener.addressMap.get("group2"), hasItem("queue3"));
+    }
+
+    @Test
+    public void testQueueWithoutGroupIsIgnored() throws Exception {
+        testConfigServ.deployConfig("{\"queue1\":{\"store_and_forward\":true,\"multicast\":false,\"group_id\":\"group1\"},\"queue2\":{\"store_and_forward\":true,\"multicast\":false}}");
+        waitForPort(() -> listener.addressMap == null ? 0 : 1, 1, TimeUnit.MINUTES);
+
+        assertThat(listener.addressMap.size(), is(1));
+        assertThat(listener.addressMap.get("group1"), is(Collections.singleton("queue1")));
+    }
+
     private static class TestListener implements ConfigListener {
         public volatile Map<String, Set<String>> addressMap;
 
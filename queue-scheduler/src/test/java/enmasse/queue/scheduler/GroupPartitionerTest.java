@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import enmasse.discovery.Endpoint;
+import enmasse.discovery.Host;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class GroupPartitionerTest {
+    @Test
+    public void testGroupsAreOwnedByOneReplica() {
+        List<GroupPartitioner> partitioners = new ArrayList<>();
+        Map<String, Endpoint> replicas = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            partitioners.add(new GroupPartitioner("replica" + i, "amqp"));
+            replicas.put("replica" + i, new Endpoint("replica" + i, 55667));
+        }
+        partitioners.forEach(p -> p.setReplicas(replicas));
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int g = 0; g < 300; g++) {
+            String groupId = "group" + g;
+            int owners = 0;
+            for (int i = 0; i < partitioners.size(); i++) {
+                if (partitioners.get(i).owns(groupId)) {
+                    owners++;
+                    owned.merge("replica" + i, 1, Integer::sum);
+                    assertThat(partitioners.get((i + 1) % 3).getOwner(groupId).hostname(), is("replica" + i));
+                }
+            }
+            assertThat(owners, is(1));
+        }
+        owned.values().forEach(count -> assertTrue(count > 50));
+    }
+
+    @Test
+    public void testOnlyGroupsOfLeavingReplicaMove() {
+        GroupPartitioner partitioner = new GroupPartitioner("replica0", "amqp");
+        AtomicInteger changes = new AtomicInteger();
+        partitioner.addListener(changes::incrementAndGet);
+
+        Map<String, Endpoint> replicas = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            replicas.put("replica" + i, new Endpoint("replica" + i, 55667));
+        }
+        partitioner.setReplicas(replicas);
+        Set<String> ownedBefore = ownedGroups(partitioner);
+
+        replicas.remove("replica2");
+        partitioner.setReplicas(replicas);
+        partitioner.setReplicas(replicas);
+        Set<String> ownedAfter = ownedGroups(partitioner);
+
+        assertThat(changes.get(), is(2));
+        assertTrue(ownedAfter.containsAll(ownedBefore));
+        assertTrue(ownedAfter.size() > ownedBefore.size());
+    }
+
+    @Test
+    public void testSingleReplicaOwnsAllGroups() {
+        GroupPartitioner partitioner = new GroupPartitioner("10.0.0.1", "amqp");
+        Map<String, Integer> ports = Collections.singletonMap("http", 8080);
+        partitioner.hostsChanged(Collections.singleton(new Host("10.0.0.2", ports)));
+
+        assertThat(ownedGroups(partitioner).size(), is(100));
+        assertNull(partitioner.getOwner("group1"));
+    }
+
+    @Test
+    public void testNoGroupsAreOwnedBeforeDiscovery() {
+        GroupPartitioner partitioner = new GroupPartitioner("10.0.0.1", "amqp");
+        AtomicInteger changes = new AtomicInteger();
+        partitioner.addListener(changes::incrementAndGet);
+        assertFalse(partitioner.discovered().isDone());
+        assertThat(ownedGroups(partitioner).size(), is(0));
+
+        partitioner.hostsChanged(Collections.emptySet());
+        assertTrue(partitioner.discovered().isDone());
+        assertThat(changes.get(), is(1));
+        assertThat(ownedGroups(partitioner).size(), is(100));
+    }
+
+    private static Set<String> ownedGroups(GroupPartitioner partitioner) {
+        Set<String> owned = new HashSet<>();
+        for (int g = 0; g < 100; g++) {
+            if (partitioner.owns("group" + g)) {
+                owned.add("group" + g);
+            }
+        }
+        return owned;
+    }
+}
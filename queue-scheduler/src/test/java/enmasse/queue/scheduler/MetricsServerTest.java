@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertThat;
+
+public class MetricsServerTest {
+    @Test
+    public void testFormat() {
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        BrokerMetrics broker = metrics.getBrokerMetrics("broker1");
+        broker.requestStarted();
+        broker.requestStarted();
+        broker.requestStarted();
+        broker.requestCompleted(TimeUnit.MILLISECONDS.toNanos(3));
+        broker.requestCompleted(TimeUnit.SECONDS.toNanos(2));
+        broker.requestTimedOut();
+        metrics.getConfigLatency().record(TimeUnit.MINUTES.toNanos(2));
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("broker1", 3L);
+        counts.put("broker2", 4L);
+
+        Map<String, Double> utilization = Collections.singletonMap("broker1", 0.75);
+
+        String text = MetricsServer.format(metrics, Collections.singletonMap("group1", new GroupStatus(counts, utilization, 2)));
+
+        assertThat(text, containsString("queue_scheduler_management_request_seconds_bucket{broker=\"broker1\",le=\"0.001\"} 0\n"));
+        assertThat(text, containsString("queue_scheduler_management_request_seconds_bucket{broker=\"broker1\",le=\"0.005\"} 1\n"));
+        assertThat(text, containsString("queue_scheduler_management_request_seconds_bucket{broker=\"broker1\",le=\"5.0\"} 2\n"));
+        assertThat(text, containsString("queue_scheduler_management_request_seconds_count{broker=\"broker1\"} 2\n"));
+        assertThat(text, containsString("queue_scheduler_management_request_seconds_sum{broker=\"broker1\"} 2.003\n"));
+        assertThat(text, containsString("queue_scheduler_management_requests_outstanding{broker=\"broker1\"} 0\n"));
+        assertThat(text, containsString("queue_scheduler_management_request_timeouts_total{broker=\"broker1\"} 1\n"));
+        assertThat(text, containsString("queue_scheduler_config_to_deployed_seconds_bucket{le=\"60.0\"} 0\n"));
+        assertThat(text, containsString("queue_scheduler_config_to_deployed_seconds_bucket{le=\"+Inf\"} 1\n"));
+        assertThat(text, containsString("queue_scheduler_group_queues{group=\"group1\"} 7\n"));
+        assertThat(text, containsString("queue_scheduler_broker_queues{group=\"group1\",broker=\"broker2\"} 4\n"));
+        assertThat(text, containsString("queue_scheduler_group_pending_addresses{group=\"group1\"} 2\n"));
+        assertThat(text, containsString("queue_scheduler_broker_utilization{group=\"group1\",broker=\"broker1\"} 0.75\n"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+import org.mockito.internal.util.collections.Sets;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PlacementIndexTest {
+    @Test
+    public void testIndex() {
+        PlacementIndex index = new PlacementIndex();
+        index.queuesDeployed("br1", Arrays.asList("queue1", "queue2"));
+        index.queuesDeployed("br2", Arrays.asList("queue2", "queue3"));
+
+        assertThat(index.getQueueNames("br1"), is(Sets.newSet("queue1", "queue2")));
+        assertThat(index.getBrokers("queue2"), is(Sets.newSet("br1", "br2")));
+        assertThat(index.byBroker(Arrays.asList("queue1", "queue3", "queue4")),
+                is(map("br1", Collections.singletonList("queue1"), "br2", Collections.singletonList("queue3"))));
+
+        index.queuesDeleted("br1", Collections.singletonList("queue2"));
+        assertThat(index.getBrokers("queue2"), is(Collections.singleton("br2")));
+
+        index.brokerRemoved("br2");
+        assertTrue(index.getBrokers("queue3").isEmpty());
+        assertThat(index.size(), is(1));
+
+        index.setQueues("br3", Collections.singletonList("queue3"));
+        assertThat(index.getBrokers("queue3"), is(Collections.singleton("br3")));
+    }
+
+    @Test
+    public void testManyAddressesAndBrokers() {
+        PlacementIndex index = new PlacementIndex();
+        Map<String, Set<String>> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2000; i++) {
+                String address = "queue" + random.nextInt(5000);
+                String brokerId = "br" + random.nextInt(100);
+                if (random.nextBoolean()) {
+                    index.queuesDeployed(brokerId, Collections.singletonList(address));
+                    expected.computeIfAbsent(brokerId, id -> new HashSet<>()).add(address);
+                } else {
+                    index.queuesDeleted(brokerId, Collections.singletonList(address));
+                    expected.computeIfAbsent(brokerId, id -> new HashSet<>()).remove(address);
+                }
+            }
+            String removed = "br" + random.nextInt(100);
+            index.brokerRemoved(removed);
+            expected.remove(removed);
+        }
+
+        Set<String> all = new HashSet<>();
+        expected.forEach((brokerId, queues) -> {
+            assertThat(index.getQueueNames(brokerId), is(queues));
+            all.addAll(queues);
+        });
+        assertThat(index.size(), is(all.size()));
+        for (String address : all) {
+            for (String brokerId : index.getBrokers(address)) {
+                assertTrue(expected.get(brokerId).contains(address));
+            }
+        }
+    }
+
+    private static Map<String, List<String>> map(String k1, List<String> v1, String k2, List<String> v2) {
+        Map<String, List<String>> map = new HashMap<>();
+        map.put(k1, v1);
+        map.put(k2, v2);
+        return map;
+    }
+}
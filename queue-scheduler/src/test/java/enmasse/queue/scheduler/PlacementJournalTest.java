@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.internal.util.collections.Sets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PlacementJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPlacementIsReloaded() throws Exception {
+        File dir = folder.newFolder();
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 1000)) {
+            journal.queuesDeployed("group1", "br1", Arrays.asList("queue1", "queue2"));
+            journal.queuesDeployed("group1", "br2", Arrays.asList("queue3"));
+            journal.queuesDeleted("group1", "br1", Arrays.asList("queue1"));
+            journal.queuesDeployed("group1", "br3", Arrays.asList("queue4"));
+            journal.brokerRemoved("group1", "br3");
+        }
+
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 1000)) {
+            assertThat(journal.getQueues("br1"), is(Sets.newSet("queue2")));
+            assertThat(journal.getQueues("br2"), is(Sets.newSet("queue3")));
+            assertThat(journal.getQueues("br3"), is(Collections.emptySet()));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = folder.newFolder();
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 10)) {
+            for (int i = 0; i < 20; i++) {
+                journal.queuesDeployed("group1", "br1", Collections.singleton("queue" + i));
+            }
+            journal.queuesDeleted("group1", "br1", Collections.singleton("queue0"));
+            journal.sync();
+            assertTrue(new File(dir, "placement.snapshot").length() > 0);
+            assertThat(new File(dir, "placement.journal").length(), is(0L));
+            journal.queuesDeleted("group1", "br1", Collections.singleton("queue1"));
+        }
+
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 10)) {
+            assertThat(journal.getQueues("br1").size(), is(18));
+            assertThat(journal.getPlacement().get("group1").get("br1").contains("queue2"), is(true));
+        }
+    }
+
+    @Test
+    public void testPartialRecordIsDiscarded() throws Exception {
+        File dir = folder.newFolder();
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 1000)) {
+            journal.queuesDeployed("group1", "br1", Arrays.asList("queue1", "queue2"));
+        }
+        // Simulate a crash in the middle of writing a record
+        try (FileOutputStream output = new FileOutputStream(new File(dir, "placement.journal"), true)) {
+            output.write(new byte[] {1, 0, 6, 'g', 'r'});
+        }
+
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 1000)) {
+            journal.queuesDeployed("group1", "br1", Arrays.asList("queue3"));
+        }
+        try (PlacementJournal journal = PlacementJournal.open(dir, 1000, 1000)) {
+            assertThat(journal.getQueues("br1"), is(Sets.newSet("queue1", "queue2", "queue3")));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PlacementStrategyTest {
+
+    @Test
+    public void testLeastQueues() {
+        Map<String, Broker> brokers = createBrokers(2);
+        brokers.get("br0").deployQueue("queue0");
+        brokers.get("br0").deployQueue("queue1");
+
+        Map<String, List<String>> placement = new LeastQueuesPlacementStrategy().place(Arrays.asList("queue0", "queue1", "queue2", "queue3", "queue4", "queue5"), brokers);
+
+        assertThat(placement.get("br1").size(), is(3));
+        assertThat(placement.get("br0").size(), is(1));
+    }
+
+    @Test
+    public void testAllBrokers() {
+        Map<String, Broker> brokers = createBrokers(3);
+        brokers.get("br1").deployQueue("queue0");
+
+        Map<String, List<String>> placement = new AllBrokersPlacementStrategy().place(Collections.singleton("queue0"), brokers);
+
+        assertThat(placement.get("br0"), is(Collections.singletonList("queue0")));
+        assertNull(placement.get("br1"));
+        assertThat(placement.get("br2"), is(Collections.singletonList("queue0")));
+    }
+
+    @Test
+    public void testLoadAware() {
+        Map<String, Broker> brokers = createBrokers(2);
+        brokers.put("busy", new TestBroker("busy", "localhost", 0) {
+            @Override
+            public BrokerLoad getLoad() {
+                return new BrokerLoad(100000, 50, 50, 900, 1000);
+            }
+        });
+
+        Map<String, List<String>> placement = new LoadAwarePlacementStrategy().place(createAddresses(10), brokers);
+
+        assertNull(placement.get("busy"));
+        assertThat(placement.get("br0").size(), is(5));
+        assertThat(placement.get("br1").size(), is(5));
+    }
+
+    @Test
+    public void testRendezvousHashIsDeterministic() {
+        List<String> addresses = createAddresses(100);
+        Map<String, List<String>> first = new RendezvousHashPlacementStrategy().place(addresses, createBrokers(4));
+        Map<String, List<String>> second = new RendezvousHashPlacementStrategy().place(addresses, createBrokers(4));
+        assertThat(first, is(second));
+    }
+
+    @Test
+    public void testRendezvousHashMovesFewQueuesWhenBrokerAdded() {
+        List<String> addresses = createAddresses(10000);
+        List<String> brokerIds = new ArrayList<>(createBrokers(4).keySet());
+
+        int moved = 0;
+        Map<String, Integer> perBroker = new HashMap<>();
+        for (String address : addresses) {
+            String before = RendezvousHashPlacementStrategy.selectBroker(address, brokerIds.subList(0, 3));
+            String after = RendezvousHashPlacementStrategy.selectBroker(address, brokerIds);
+            if (!before.equals(after)) {
+                assertThat(after, is("br3"));
+                moved++;
+            }
+            perBroker.merge(after, 1, Integer::sum);
+        }
+
+        // Expect about 1/4 of the queues to move, and the queues to be spread evenly
+        assertTrue("Moved " + moved, moved > 2000 && moved < 3000);
+        for (int count : perBroker.values()) {
+            assertTrue("Broker has " + count, count > 2000 && count < 3000);
+        }
+    }
+
+    private static List<String> createAddresses(int numAddresses) {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < numAddresses; i++) {
+            addresses.add("queue" + i);
+        }
+        return addresses;
+    }
+
+    private static Map<String, Broker> createBrokers(int numBrokers) {
+        Map<String, Broker> brokers = new LinkedHashMap<>();
+        for (int i = 0; i < numBrokers; i++) {
+            brokers.put("br" + i, new TestBroker("br" + i, "localhost", 0));
+        }
+        return brokers;
+    }
+}
@@ -16,16 +16,21 @@
 
 package enmasse.queue.scheduler;
 
+import enmasse.discovery.Endpoint;
+import enmasse.discovery.Host;
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
+import io.vertx.proton.ProtonClient;
+import io.vertx.proton.ProtonConnection;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.transport.ConnectionError;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.internal.util.collections.Sets;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.*;
 
 import static enmasse.queue.scheduler.TestUtils.waitForPort;
@@ -168,6 +173,127 @@ public class QueueSchedulerTest {
         assertThat(br1.getQueueNames(), hasItem("queue1"));
     }
 
+    @Test
+    public void testBrokersBeyondOnboardingLimitAreAdded() throws Exception {
+        // Brokers are created off the connection context, so that waiting onboarding tasks are started elsewhere
+        ExecutorService creator = Executors.newSingleThreadExecutor();
+        Set<String> wrongContext = ConcurrentHashMap.newKeySet();
+        BrokerFactory slowFactory = connection -> {
+            if (connection.attachments().get(BrokerFactory.CONTEXT_KEY, Context.class) != Vertx.currentContext()) {
+                wrongContext.add(connection.getRemoteContainer());
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return brokerFactory.createBroker(connection).join();
+            }, creator);
+        };
+        QueueScheduler limited = new QueueScheduler(slowFactory, 0);
+        limited.setOnboardingConcurrency(1);
+        TestUtils.deployVerticle(vertx, limited);
+        brokerFactory.setSchedulerPort(waitForPort(limited::getPort, 1, TimeUnit.MINUTES));
+
+        Map<String, Set<String>> addressMap = new HashMap<>();
+        List<TestBroker> brokers = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            addressMap.put("br" + i, Sets.newSet("queue" + i));
+            brokers.add(deployBroker("br" + i));
+        }
+        limited.addressesChanged(addressMap);
+
+        for (TestBroker broker : brokers) {
+            waitForAddresses(broker, 1);
+        }
+        assertThat(wrongContext, is(Collections.emptySet()));
+        creator.shutdown();
+    }
+
+    @Test
+    public void testSchedulerListensAfterReplicasAreDiscovered() throws Exception {
+        GroupPartitioner partitioner = new GroupPartitioner("replica0", "amqp");
+        QueueScheduler partitioned = new QueueScheduler(brokerFactory, 0);
+        partitioned.setPartitioner(partitioner);
+        TestUtils.deployVerticle(vertx, partitioned);
+        Thread.sleep(1000);
+        assertThat(partitioned.getPort(), is(0));
+
+        partitioner.setReplicas(Collections.emptyMap());
+        waitForPort(partitioned::getPort, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testBrokerOfOtherReplicaIsRedirected() throws Exception {
+        GroupPartitioner partitioner = new GroupPartitioner("replica0", "amqp");
+        Map<String, Endpoint> replicas = new HashMap<>();
+        replicas.put("replica0", new Endpoint("replica0", 55667));
+        replicas.put("replica1", new Endpoint("replica1", 55668));
+        partitioner.setReplicas(replicas);
+        String groupId = "br1";
+        for (int i = 0; partitioner.owns(groupId); i++) {
+            groupId = "br" + i;
+        }
+
+        QueueScheduler partitioned = new QueueScheduler(brokerFactory, 0);
+        partitioned.setPartitioner(partitioner);
+        TestUtils.deployVerticle(vertx, partitioned);
+        int port = waitForPort(partitioned::getPort, 1, TimeUnit.MINUTES);
+
+        CompletableFuture<ErrorCondition> condition = new CompletableFuture<>();
+        String brokerId = groupId;
+        ProtonClient.create(vertx).connect("localhost", port, result -> {
+            ProtonConnection connection = result.result();
+            connection.setContainer(brokerId);
+            connection.closeHandler(closed -> condition.complete(connection.getRemoteCondition()));
+            connection.open();
+        });
+
+        ErrorCondition redirect = condition.get(1, TimeUnit.MINUTES);
+        assertThat(redirect.getCondition(), is(ConnectionError.REDIRECT));
+        assertThat(redirect.getInfo().get(Symbol.getSymbol("network-host")), is("replica1"));
+    }
+
+    @Test
+    public void testStandbyTakesOverWithReplicatedPlacement() throws Exception {
+        Vertx activeVertx = Vertx.vertx();
+        PlacementReplicator activePlacement = new PlacementReplicator(PlacementStore.NONE);
+        QueueScheduler active = new QueueScheduler(brokerFactory, PlacementStrategyProvider.createDefault(), CapacityProvider.createDefault(), activePlacement, new SchedulerMetrics(), 0);
+        active.setReplicator(activePlacement);
+        TestUtils.deployVerticle(activeVertx, active);
+        int activePort = waitForPort(active::getPort, 1, TimeUnit.MINUTES);
+
+        brokerFactory.setSchedulerPort(activePort);
+        TestBroker br1 = deployBroker("br1");
+        active.addressesChanged(Collections.singletonMap("br1", Sets.newSet("queue1", "queue2")));
+        waitForAddresses(br1, 2);
+
+        PlacementReplicator standbyPlacement = new PlacementReplicator(PlacementStore.NONE);
+        StandbyClient standbyClient = new StandbyClient("localhost", activePort, standbyPlacement, 2000);
+        QueueScheduler standby = new QueueScheduler(brokerFactory, PlacementStrategyProvider.createDefault(), CapacityProvider.createDefault(), standbyPlacement, new SchedulerMetrics(), 0);
+        standby.setStandby(standbyClient);
+        TestUtils.deployVerticle(vertx, standbyClient);
+        TestUtils.deployVerticle(vertx, standby);
+
+        long endTime = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (System.currentTimeMillis() < endTime && standbyPlacement.getQueues("br1").size() < 2) {
+            Thread.sleep(100);
+        }
+        assertThat(standbyPlacement.getQueues("br1"), is(Sets.newSet("queue1", "queue2")));
+        assertThat(standby.getPort(), is(0));
+
+        // An unreachable active scheduler that is still running is not taken over from
+        standbyClient.hostsChanged(Collections.singleton(new Host("active", Collections.singletonMap("amqp", activePort))));
+        activeVertx.close();
+        Thread.sleep(4000);
+        assertThat(standby.getPort(), is(0));
+
+        standbyClient.hostsChanged(Collections.emptySet());
+        waitForPort(standby::getPort, 1, TimeUnit.MINUTES);
+        assertThat(standbyPlacement.getQueues("br1"), is(Sets.newSet("queue1", "queue2")));
+    }
+
     private static void waitForAddresses(TestBroker broker, long numAddresses) throws InterruptedException {
         waitForAddresses(broker, numAddresses, 1, TimeUnit.MINUTES);
     }
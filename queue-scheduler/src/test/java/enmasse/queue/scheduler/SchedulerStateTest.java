@@ -0,0 +1,432 @@
+/*
+ * Copyright 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package enmasse.queue.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.util.collections.Sets;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SchedulerStateTest {
+    private ExecutorService executor;
+    private SchedulerState schedulerState;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        schedulerState = new SchedulerState(executor);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowGroupDoesNotBlockOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestBroker slow = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public void deployQueue(String address) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.deployQueue(address);
+            }
+        };
+        TestBroker fast = new TestBroker("br2", "localhost", 0);
+
+        schedulerState.brokerAdded("group1", "br1", slow).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group2", "br2", fast).get(1, TimeUnit.MINUTES);
+
+        Map<String, Set<String>> addressMap = new HashMap<>();
+        addressMap.put("group1", Sets.newSet("queue1"));
+        addressMap.put("group2", Sets.newSet("queue2"));
+        CompletableFuture<Void> slowResult = schedulerState.groupUpdated("group1", addressMap.get("group1"));
+        schedulerState.groupUpdated("group2", addressMap.get("group2")).get(1, TimeUnit.MINUTES);
+
+        assertThat(fast.getQueueNames(), hasItem("queue2"));
+        assertFalse(slowResult.isDone());
+
+        release.countDown();
+        slowResult.get(1, TimeUnit.MINUTES);
+        assertThat(slow.getQueueNames(), hasItem("queue1"));
+    }
+
+    @Test
+    public void testGroupOperationsAreOrdered() throws Exception {
+        TestBroker broker = new TestBroker("br1", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", broker);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3"));
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2")).get(1, TimeUnit.MINUTES);
+
+        assertThat(broker.getNumQueues(), is(2L));
+    }
+
+    @Test
+    public void testPendingUpdatesAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> deployed = new CopyOnWriteArrayList<>();
+        TestBroker broker = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public void deployQueue(String address) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                deployed.add(address);
+                super.deployQueue(address);
+            }
+        };
+        schedulerState.brokerAdded("group1", "br1", broker).get(1, TimeUnit.MINUTES);
+
+        CompletableFuture<Void> first = schedulerState.groupUpdated("group1", Sets.newSet("queue1"));
+        // Wait for the first update to be in progress
+        while (!((ThreadPoolExecutor) executor).getQueue().isEmpty() || ((ThreadPoolExecutor) executor).getActiveCount() == 0) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<Void> second = schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2"));
+        CompletableFuture<Void> third = schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue3"));
+        assertSame(second, third);
+
+        release.countDown();
+        first.get(1, TimeUnit.MINUTES);
+        third.get(1, TimeUnit.MINUTES);
+
+        assertThat(deployed, is(Arrays.asList("queue1", "queue3")));
+    }
+
+    @Test
+    public void testRebalanceWhenBrokerJoins() throws Exception {
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        Set<String> addresses = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            addresses.add("queue" + i);
+        }
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", addresses).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(0L));
+
+        schedulerState.rebalance(3, 0.2).get(1, TimeUnit.MINUTES);
+        assertThat(br1.getNumQueues(), is(7L));
+        assertThat(br2.getNumQueues(), is(3L));
+
+        schedulerState.rebalance(100, 0.2).get(1, TimeUnit.MINUTES);
+        assertThat(br1.getNumQueues(), is(5L));
+        assertThat(br2.getNumQueues(), is(5L));
+
+        Set<String> deployed = new HashSet<>(br1.getQueueNames());
+        deployed.addAll(br2.getQueueNames());
+        assertThat(deployed, is(addresses));
+
+        schedulerState.rebalance(100, 0.2).get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(5L));
+    }
+
+    @Test
+    public void testRebalanceMovesQueuesToSelectedBroker() throws Exception {
+        schedulerState = new SchedulerState(executor, new PlacementStrategyProvider(new RendezvousHashPlacementStrategy(), Collections.emptyMap()), PlacementStore.NONE);
+        List<TestBroker> brokers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            brokers.add(new TestBroker("br" + i, "localhost", 0));
+        }
+        Set<String> addresses = new HashSet<>();
+        for (int i = 0; i < 400; i++) {
+            addresses.add("queue" + i);
+        }
+        for (int i = 0; i < 3; i++) {
+            schedulerState.brokerAdded("group1", "br" + i, brokers.get(i)).get(1, TimeUnit.MINUTES);
+        }
+        schedulerState.groupUpdated("group1", addresses).get(1, TimeUnit.MINUTES);
+        TestBroker br3 = brokers.get(3);
+        schedulerState.brokerAdded("group1", "br3", br3).get(1, TimeUnit.MINUTES);
+        assertThat(br3.getNumQueues(), is(0L));
+
+        schedulerState.rebalance(10, 0.2).get(1, TimeUnit.MINUTES);
+        assertThat(br3.getNumQueues(), is(10L));
+
+        // Expect about 1/4 of the queues to move to the new broker, and only those
+        schedulerState.rebalance(1000, 0.2).get(1, TimeUnit.MINUTES);
+        assertTrue("Moved " + br3.getNumQueues(), br3.getNumQueues() > 70 && br3.getNumQueues() < 130);
+        List<String> brokerIds = Arrays.asList("br0", "br1", "br2", "br3");
+        Set<String> deployed = new HashSet<>();
+        for (int i = 0; i < brokers.size(); i++) {
+            for (String address : brokers.get(i).getQueueNames()) {
+                assertThat(RendezvousHashPlacementStrategy.selectBroker(address, brokerIds), is("br" + i));
+                assertTrue(deployed.add(address));
+            }
+        }
+        assertThat(deployed, is(addresses));
+    }
+
+    @Test
+    public void testQueuesChangedOnBrokerAreReconciled() throws Exception {
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2")).get(1, TimeUnit.MINUTES);
+
+        // Changed by someone other than the scheduler
+        br1.deleteQueue("queue1");
+        br1.deployQueue("unknown");
+        schedulerState.brokerInventoryChanged("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+
+        assertThat(br1.getQueueNames(), is(Sets.newSet("queue1", "queue2")));
+    }
+
+    @Test
+    public void testRebalanceKeepsQueuesWithMessages() throws Exception {
+        Set<String> stored = Sets.newSet("queue0", "queue1", "queue2", "queue3", "queue4");
+        TestBroker br1 = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public CompletableFuture<Long> getMessageCountAsync(String address) {
+                return CompletableFuture.completedFuture(stored.contains(address) ? 10L : 0L);
+            }
+        };
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        Set<String> addresses = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            addresses.add("queue" + i);
+        }
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", addresses).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+
+        schedulerState.rebalance(100, 0.2).get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(5L));
+        assertTrue(br1.getQueueNames().containsAll(stored));
+        assertFalse(br2.getQueueNames().stream().anyMatch(stored::contains));
+    }
+
+    @Test
+    public void testQueuesArePlacedAgainWhenBrokerIsRemovedWhileDeploying() throws Exception {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        TestBroker slow = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public CompletableFuture<Map<String, Throwable>> deployQueues(Collection<String> addresses) {
+                return release.thenCompose(v -> super.deployQueues(addresses));
+            }
+        };
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        Set<String> recorded = ConcurrentHashMap.newKeySet();
+        schedulerState = new SchedulerState(executor, PlacementStrategyProvider.createDefault(), new PlacementStore() {
+            @Override
+            public void queuesDeployed(String groupId, String brokerId, Collection<String> addresses) {
+                recorded.add(brokerId);
+            }
+        });
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2")).get(1, TimeUnit.MINUTES);
+
+        CompletableFuture<Void> added = schedulerState.brokerAdded("group1", "br1", slow);
+        schedulerState.brokerRemoved("group1", "br1").get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(0L));
+
+        release.complete(null);
+        added.get(1, TimeUnit.MINUTES);
+        assertThat(br2.getQueueNames(), is(Sets.newSet("queue1", "queue2")));
+        assertThat(recorded, is(Collections.singleton("br2")));
+    }
+
+    @Test
+    public void testBrokerReconnectsWithinGracePeriod() throws Exception {
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3", "queue4")).get(1, TimeUnit.MINUTES);
+        Set<String> br1Queues = new HashSet<>(br1.getQueueNames());
+        assertThat(br1Queues.size(), is(2));
+
+        schedulerState.brokerDisconnected("group1", "br1", CompletableFuture.completedFuture(br1), 60000).get(1, TimeUnit.MINUTES);
+        schedulerState.expireDisconnectedBrokers("group1").get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(2L));
+
+        // The broker comes back having lost one queue, and an address was removed while it was away
+        String lost = br1Queues.iterator().next();
+        br1.deleteQueue(lost);
+        Set<String> remaining = new HashSet<>(br1Queues);
+        remaining.remove(lost);
+        String removed = remaining.iterator().next();
+        Set<String> updated = Sets.newSet("queue1", "queue2", "queue3", "queue4");
+        updated.remove(removed);
+        schedulerState.groupUpdated("group1", updated).get(1, TimeUnit.MINUTES);
+
+        TestBroker reconnected = new TestBroker("br1", "localhost", 0);
+        reconnected.deployQueue(removed);
+        schedulerState.brokerAdded("group1", "br1", reconnected).get(1, TimeUnit.MINUTES);
+        assertThat(reconnected.getQueueNames(), is(Collections.singleton(lost)));
+        assertThat(br2.getNumQueues(), is(2L));
+
+        // A disconnect of the old connection is ignored
+        schedulerState.brokerDisconnected("group1", "br1", CompletableFuture.completedFuture(br1), 0).get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(2L));
+    }
+
+    @Test
+    public void testRemovedBrokerIsPurgedFromStore() throws Exception {
+        PlacementReplicator store = new PlacementReplicator(PlacementStore.NONE);
+        schedulerState = new SchedulerState(executor, PlacementStrategyProvider.createDefault(), store);
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2")).get(1, TimeUnit.MINUTES);
+        assertThat(store.getQueues("br1").size(), is(1));
+
+        schedulerState.brokerDisconnected("group1", "br1", CompletableFuture.completedFuture(br1), 1).get(1, TimeUnit.MINUTES);
+        assertThat(store.getQueues("br1").size(), is(1));
+        Thread.sleep(10);
+        schedulerState.expireDisconnectedBrokers("group1").get(1, TimeUnit.MINUTES);
+        assertThat(store.getQueues("br1"), is(Collections.emptySet()));
+        assertThat(store.getQueues("br2"), is(Sets.newSet("queue1", "queue2")));
+
+        schedulerState.brokerRemoved("group1", "br2").get(1, TimeUnit.MINUTES);
+        assertThat(store.getPlacement(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void testDisconnectOfFailedBrokerKeepsGracePeriod() throws Exception {
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3", "queue4")).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerDisconnected("group1", "br1", CompletableFuture.completedFuture(br1), 60000).get(1, TimeUnit.MINUTES);
+
+        // A connection of the broker that failed before the broker was created disconnects
+        CompletableFuture<Broker> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new TimeoutException("Timed out creating broker"));
+        schedulerState.brokerDisconnected("group1", "br1", failed, 60000).get(1, TimeUnit.MINUTES);
+
+        TestBroker br3 = new TestBroker("br3", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br3", br3).get(1, TimeUnit.MINUTES);
+        assertThat(br3.getNumQueues(), is(0L));
+    }
+
+    @Test
+    public void testQueuesArePlacedWhenGracePeriodExpires() throws Exception {
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3", "queue4")).get(1, TimeUnit.MINUTES);
+
+        schedulerState.brokerDisconnected("group1", "br1", CompletableFuture.completedFuture(br1), 1).get(1, TimeUnit.MINUTES);
+        Thread.sleep(10);
+        schedulerState.expireDisconnectedBrokers("group1").get(1, TimeUnit.MINUTES);
+        assertThat(br2.getNumQueues(), is(4L));
+    }
+
+    @Test
+    public void testBrokersAreOnboardedConcurrently() throws Exception {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        TestBroker br1 = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public CompletableFuture<Void> deployQueueAsync(String address) {
+                return release.thenRun(() -> deployQueue(address));
+            }
+        };
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2")).get(1, TimeUnit.MINUTES);
+
+        CompletableFuture<Void> br1Added = schedulerState.brokerAdded("group1", "br1", br1);
+        // The group is not held while the queues of br1 are deployed, and they are not placed again on br2
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        assertFalse(br1Added.isDone());
+        assertThat(br2.getNumQueues(), is(0L));
+
+        release.complete(null);
+        br1Added.get(1, TimeUnit.MINUTES);
+        assertThat(br1.getNumQueues(), is(2L));
+    }
+
+    @Test
+    public void testQueuesAreOnlyDeletedOnOwningBroker() throws Exception {
+        List<String> deleted = new CopyOnWriteArrayList<>();
+        TestBroker br1 = new TestBroker("br1", "localhost", 0) {
+            @Override
+            public void deleteQueue(String address) {
+                deleted.add(address);
+                super.deleteQueue(address);
+            }
+        };
+        TestBroker br2 = new TestBroker("br2", "localhost", 0) {
+            @Override
+            public void deleteQueue(String address) {
+                deleted.add(address);
+                super.deleteQueue(address);
+            }
+        };
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3", "queue4")).get(1, TimeUnit.MINUTES);
+        assertThat(br1.getNumQueues(), is(2L));
+
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1")).get(1, TimeUnit.MINUTES);
+        assertThat(deleted.size(), is(3));
+        Set<String> remaining = new HashSet<>(br1.getQueueNames());
+        remaining.addAll(br2.getQueueNames());
+        assertThat(remaining, is(Collections.singleton("queue1")));
+    }
+
+    @Test
+    public void testAddressesArePendingWhenBrokersAreAtCapacity() throws Exception {
+        CapacityProvider capacityProvider = new CapacityProvider(new BrokerCapacity(2, 0, 0), Collections.emptyMap());
+        schedulerState = new SchedulerState(executor, PlacementStrategyProvider.createDefault(), PlacementStore.NONE, capacityProvider);
+        TestBroker br1 = new TestBroker("br1", "localhost", 0);
+        TestBroker br2 = new TestBroker("br2", "localhost", 0);
+        schedulerState.brokerAdded("group1", "br1", br1).get(1, TimeUnit.MINUTES);
+        schedulerState.brokerAdded("group1", "br2", br2).get(1, TimeUnit.MINUTES);
+
+        schedulerState.groupUpdated("group1", Sets.newSet("queue1", "queue2", "queue3", "queue4", "queue5")).get(1, TimeUnit.MINUTES);
+        assertThat(br1.getNumQueues(), is(2L));
+        assertThat(br2.getNumQueues(), is(2L));
+        GroupStatus status = schedulerState.getGroupStatus().get("group1");
+        assertThat(status.getNumPending(), is(1));
+        assertThat(status.getUtilization().get("br1"), is(1.0));
+
+        // Removing an address makes room for the pending one
+        Set<String> deployed = new HashSet<>(br1.getQueueNames());
+        deployed.addAll(br2.getQueueNames());
+        Set<String> updated = new HashSet<>(deployed);
+        updated.remove(deployed.iterator().next());
+        Set<String> all = Sets.newSet("queue1", "queue2", "queue3", "queue4", "queue5");
+        all.removeAll(deployed);
+        updated.addAll(all);
+        schedulerState.groupUpdated("group1", updated).get(1, TimeUnit.MINUTES);
+
+        deployed = new HashSet<>(br1.getQueueNames());
+        deployed.addAll(br2.getQueueNames());
+        assertThat(deployed, is(updated));
+        assertThat(schedulerState.getGroupStatus().get("group1").getNumPending(), is(0));
+    }
+}